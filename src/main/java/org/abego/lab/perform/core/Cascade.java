@@ -0,0 +1,98 @@
+package org.abego.lab.perform.core;
+
+/**
+ * A "pre-compiled" cascade, i.e. several messages sent to the same receiver,
+ * like Smalltalk's {@code x foo; bar; baz}.
+ * <p>
+ * The methods of the messages are resolved once per receiver class and kept
+ * in the cascade ("inline cache"), so performing the cascade again for a
+ * receiver of the same class needs no lookup at all. The cached methods are
+ * dropped whenever the method map changes in a way that may affect them
+ * (e.g. when a method map is loaded or an extension is added).
+ * <p>
+ * A Cascade may be shared by several threads.
+ */
+public final class Cascade {
+    private static final class Resolution {
+        final Class<?> type;
+        final long epoch;
+        /**
+         * Per message: the Method or ClassExtension to invoke, or
+         * {@code null} when the message needs a regular perform.
+         */
+        final Object[] methodsOrExtensions;
+
+        Resolution(Class<?> type, long epoch, Object[] methodsOrExtensions) {
+            this.type = type;
+            this.epoch = epoch;
+            this.methodsOrExtensions = methodsOrExtensions;
+        }
+    }
+
+    private final Message[] messages;
+    private volatile Resolution resolution;
+
+    private Cascade(Message[] messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Returns the cascade of the unary messages {@code selectors}.
+     */
+    public static Cascade of(String... selectors) {
+        Message[] messages = new Message[selectors.length];
+        for (int i = 0; i < selectors.length; i++) {
+            messages[i] = new Message(selectors[i], null);
+        }
+        return new Cascade(messages);
+    }
+
+    /**
+     * Returns the cascade of the {@code messages} (with their arguments).
+     */
+    public static Cascade of(Message... messages) {
+        return new Cascade(messages.clone());
+    }
+
+    /**
+     * Sends all messages to the {@code receiver}, in order, and returns the
+     * result of the last message (discarding the other results).
+     */
+    public Object perform(Object receiver) {
+        return performMessages(receiver, null);
+    }
+
+    /**
+     * Sends all messages to the {@code receiver}, in order, and returns the
+     * results of all messages.
+     */
+    public Object[] performAll(Object receiver) {
+        Object[] results = new Object[messages.length];
+        performMessages(receiver, results);
+        return results;
+    }
+
+    private Object performMessages(Object receiver, Object[] results) {
+        Object[] methodsOrExtensions = methodsOrExtensions(receiver.getClass());
+        Object result = null;
+        for (int i = 0; i < messages.length; i++) {
+            Message message = messages[i];
+            result = Performer.performResolved(receiver,
+                    message.getSelector(), methodsOrExtensions[i], message.getArguments());
+            if (results != null) {
+                results[i] = result;
+            }
+        }
+        return result;
+    }
+
+    private Object[] methodsOrExtensions(Class<?> type) {
+        long epoch = Performer.getEpoch();
+        Resolution r = resolution;
+        if (r == null || r.type != type || r.epoch != epoch) {
+            r = new Resolution(type, epoch, Performer.resolveAll(type, messages));
+            resolution = r;
+        }
+        return r.methodsOrExtensions;
+    }
+}
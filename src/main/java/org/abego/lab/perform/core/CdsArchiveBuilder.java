@@ -0,0 +1,84 @@
+package org.abego.lab.perform.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds a Class Data Sharing (CDS) archive for a class list, e.g. one
+ * exported from a method map by {@link ClassListExporter}.
+ * <p>
+ * The archive is built by running {@code java -Xshare:dump} with the JVM
+ * this code runs on. To use the archive start the application with
+ * {@code -XX:SharedArchiveFile=archiveFilePath} and the same class path.
+ * <p>
+ * Notice: CDS only archives application classes loaded from JAR files, not
+ * from directories. Also, archiving application classes requires Java 10 or
+ * later (Oracle JDK 8 requires the commercial feature "AppCDS").
+ */
+public final class CdsArchiveBuilder {
+    private CdsArchiveBuilder() {
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     * CdsArchiveBuilder classListFilePath archiveFilePath classPath
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 3) {
+            System.err.println("Usage: CdsArchiveBuilder classListFilePath archiveFilePath classPath");
+            System.exit(1);
+        }
+        buildArchive(args[0], args[1], args[2]);
+    }
+
+    /**
+     * Builds the CDS archive {@code archiveFilePath} for the classes listed in
+     * {@code classListFilePath}, loaded from {@code classPath}.
+     *
+     * @throws IOException when the archive could not be built. The message
+     *                     contains the output of the JVM.
+     */
+    public static void buildArchive(
+            String classListFilePath, String archiveFilePath, String classPath)
+            throws IOException, InterruptedException {
+
+        List<String> command = new ArrayList<>(Arrays.asList(
+                javaExecutable(),
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classListFilePath,
+                "-XX:SharedArchiveFile=" + archiveFilePath,
+                "-cp", classPath));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = readFully(process.getInputStream());
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IOException(String.format(
+                    "Building CDS archive failed (exit value %d):%n%s", exitValue, output));
+        }
+    }
+
+    /**
+     * Returns the path of the "java" executable of the running JVM.
+     */
+    static String javaExecutable() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            result.write(buffer, 0, n);
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,14 @@
+package org.abego.lab.perform.core;
+
+/**
+ * A method added to a class "from the outside", for a selector, see
+ * {@link Performer#addExtension(Class, String, ClassExtension)}.
+ */
+@FunctionalInterface
+public interface ClassExtension {
+    /**
+     * Performs the extension for the {@code receiver} with the
+     * {@code arguments} of the message.
+     */
+    Object perform(Object receiver, Object[] arguments);
+}
@@ -0,0 +1,307 @@
+package org.abego.lab.perform.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The data of a compiled class (".class" file) needed to generate a method
+ * map without loading the class: its name, its super types and its public
+ * methods.
+ * <p>
+ * The parser only reads what it needs and skips everything else (fields,
+ * attributes, ...). All names are returned in the format used by
+ * {@link Class#getName()}.
+ */
+final class ClassFileInfo {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_INTERFACE = 0x0200;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELD_REF = 9;
+    private static final int CONSTANT_METHOD_REF = 10;
+    private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * A public method declared in a class file.
+     */
+    static final class MethodInfo {
+        private final ClassFileInfo declaringClass;
+        private final String name;
+        private final String[] parameterTypeNames;
+        private final String returnTypeName;
+        private final boolean isStatic;
+        private final boolean isBridge;
+
+        MethodInfo(ClassFileInfo declaringClass, String name, String descriptor, int accessFlags)
+                throws IOException {
+            this.declaringClass = declaringClass;
+            this.name = name;
+            this.isStatic = Modifier.isStatic(accessFlags);
+            this.isBridge = (accessFlags & ACC_BRIDGE) != 0;
+
+            int end = descriptor.indexOf(')');
+            if (!descriptor.startsWith("(") || end < 0) {
+                throw new IOException("Invalid method descriptor: " + descriptor);
+            }
+            List<String> parameterTypes = new ArrayList<>();
+            int i = 1;
+            while (i < end) {
+                int typeEnd = endOfFieldDescriptor(descriptor, i);
+                parameterTypes.add(typeName(descriptor.substring(i, typeEnd)));
+                i = typeEnd;
+            }
+            this.parameterTypeNames = parameterTypes.toArray(new String[0]);
+            this.returnTypeName = typeName(descriptor.substring(end + 1));
+        }
+
+        ClassFileInfo getDeclaringClass() {
+            return declaringClass;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String[] getParameterTypeNames() {
+            return parameterTypeNames;
+        }
+
+        String getReturnTypeName() {
+            return returnTypeName;
+        }
+
+        boolean isStatic() {
+            return isStatic;
+        }
+
+        boolean isBridge() {
+            return isBridge;
+        }
+
+        long signatureHash() {
+            return ClassFingerprint.signatureHash(name, parameterTypeNames, returnTypeName, isStatic);
+        }
+    }
+
+    private final String name;
+    private final int accessFlags;
+    /**
+     * {@code null} for {@code java.lang.Object} and for interfaces.
+     */
+    private final String superclassName;
+    private final List<String> interfaceNames;
+    private final List<MethodInfo> publicMethods = new ArrayList<>();
+
+    private ClassFileInfo(String name, int accessFlags, String superclassName, List<String> interfaceNames) {
+        this.name = name;
+        this.accessFlags = accessFlags;
+        this.superclassName = superclassName;
+        this.interfaceNames = interfaceNames;
+    }
+
+    static ClassFileInfo read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        String[] constants = readConstantPool(in);
+
+        int accessFlags = in.readUnsignedShort();
+        String name = className(constants, in.readUnsignedShort());
+        int superclassIndex = in.readUnsignedShort();
+        String superclassName = superclassIndex != 0 && (accessFlags & ACC_INTERFACE) == 0
+                ? className(constants, superclassIndex) : null;
+        int interfaceCount = in.readUnsignedShort();
+        List<String> interfaceNames = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaceNames.add(className(constants, in.readUnsignedShort()));
+        }
+        ClassFileInfo result = new ClassFileInfo(
+                name, accessFlags, superclassName, Collections.unmodifiableList(interfaceNames));
+
+        int fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            in.readUnsignedShort(); // access flags
+            in.readUnsignedShort(); // name
+            in.readUnsignedShort(); // descriptor
+            skipAttributes(in);
+        }
+
+        int methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            int methodAccessFlags = in.readUnsignedShort();
+            String methodName = constants[in.readUnsignedShort()];
+            String descriptor = constants[in.readUnsignedShort()];
+            skipAttributes(in);
+            if (Modifier.isPublic(methodAccessFlags) && !methodName.startsWith("<")) {
+                result.publicMethods.add(new MethodInfo(result, methodName, descriptor, methodAccessFlags));
+            }
+        }
+        return result;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    boolean isAbstract() {
+        return Modifier.isAbstract(accessFlags);
+    }
+
+    String getSuperclassName() {
+        return superclassName;
+    }
+
+    List<String> getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    /**
+     * Returns the public methods declared in this class (excluding
+     * constructors), in the order of the class file.
+     */
+    List<MethodInfo> getPublicMethods() {
+        return publicMethods;
+    }
+
+    /**
+     * Returns the constant pool, with the UTF8 constants as strings and the
+     * class constants as the index of their name (as a string). All other
+     * constants are {@code null}.
+     */
+    private static String[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        String[] result = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    result[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    result[i] = Integer.toString(in.readUnsignedShort());
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELD_REF:
+                case CONSTANT_METHOD_REF:
+                case CONSTANT_INTERFACE_METHOD_REF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    // 8-byte constants take two entries in the pool
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Invalid constant pool tag: " + tag);
+            }
+        }
+        return result;
+    }
+
+    private static String className(String[] constants, int classIndex) {
+        String internalName = constants[Integer.parseInt(constants[classIndex])];
+        return internalName.replace('/', '.');
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            in.readUnsignedShort(); // name
+            int length = in.readInt();
+            if (in.skipBytes(length) != length) {
+                throw new IOException("Unexpected end of class file");
+            }
+        }
+    }
+
+    private static int endOfFieldDescriptor(String descriptor, int start) throws IOException {
+        int i = start;
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        if (descriptor.charAt(i) == 'L') {
+            i = descriptor.indexOf(';', i);
+            if (i < 0) {
+                throw new IOException("Invalid descriptor: " + descriptor);
+            }
+        }
+        return i + 1;
+    }
+
+    /**
+     * Returns the name of the type of the field descriptor, as returned by
+     * {@link Class#getName()} (e.g. "int", "java.lang.String",
+     * "[Ljava.lang.String;").
+     */
+    static String typeName(String fieldDescriptor) throws IOException {
+        char c = fieldDescriptor.charAt(0);
+        switch (c) {
+            case 'Z':
+                return "boolean";
+            case 'B':
+                return "byte";
+            case 'C':
+                return "char";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            case 'V':
+                return "void";
+            case 'L':
+                return fieldDescriptor.substring(1, fieldDescriptor.length() - 1).replace('/', '.');
+            case '[':
+                // arrays keep the descriptor format
+                return fieldDescriptor.replace('/', '.');
+            default:
+                throw new IOException("Invalid descriptor: " + fieldDescriptor);
+        }
+    }
+}
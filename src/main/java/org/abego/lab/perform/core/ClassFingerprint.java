@@ -0,0 +1,97 @@
+package org.abego.lab.perform.core;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Calculates a cheap fingerprint of a class, based on the signatures of its
+ * public methods (including inherited ones).
+ * <p>
+ * A method map entry resolved for a class stays valid as long as the public
+ * methods of the class do not change, so a changed fingerprint tells us the
+ * persisted entries of that class may be stale.
+ */
+final class ClassFingerprint {
+    private ClassFingerprint() {
+    }
+
+    /**
+     * The public methods of a loaded class do not change, so the fingerprint
+     * is only calculated once per class.
+     */
+    private static final ClassValue<Long> CACHE = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            return calculate(type);
+        }
+    };
+
+    static long of(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    private static long calculate(Class<?> type) {
+        Method[] methods = type.getMethods();
+        long[] signatureHashes = new long[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            signatureHashes[i] = signatureHash(methods[i]);
+        }
+        return combine(signatureHashes);
+    }
+
+    /**
+     * Returns the fingerprint of a class whose public methods have the
+     * given {@code signatureHashes} (see
+     * {@link #signatureHash(String, String[], String, boolean)}).
+     * <p>
+     * Allows to calculate the fingerprint of a class without loading it.
+     */
+    static long combine(long[] signatureHashes) {
+        // The order of the methods returned by getMethods is unspecified.
+        // Therefore, we combine the hashes of the individual methods with
+        // a commutative operation (+).
+        long result = signatureHashes.length;
+        for (long signatureHash : signatureHashes) {
+            result += mix(signatureHash);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hash of a method signature, with all types given by their
+     * {@link Class#getName()}.
+     */
+    static long signatureHash(
+            String methodName, String[] parameterTypeNames, String returnTypeName, boolean isStatic) {
+        long h = methodName.hashCode();
+        for (String parameterTypeName : parameterTypeNames) {
+            h = 31 * h + parameterTypeName.hashCode();
+        }
+        h = 31 * h + returnTypeName.hashCode();
+        h = 31 * h + (isStatic ? Modifier.STATIC : 0);
+        return h;
+    }
+
+    private static long signatureHash(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String[] parameterTypeNames = new String[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterTypeNames[i] = parameterTypes[i].getName();
+        }
+        return signatureHash(method.getName(), parameterTypeNames,
+                method.getReturnType().getName(), Modifier.isStatic(method.getModifiers()));
+    }
+
+    /**
+     * Spreads the bits of {@code h} over the full 64 bits (finalizer of
+     * MurmurHash3), so the sum of several hashes is unlikely to collide.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
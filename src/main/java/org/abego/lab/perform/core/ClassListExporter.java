@@ -0,0 +1,100 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exports the classes referred to by method maps (in the
+ * {@link MethodMapFormat#BLOCKS} format) as a class list for Class Data
+ * Sharing (AppCDS, see the JVM option {@code -XX:SharedClassListFile}).
+ * <p>
+ * A method map knows exactly which classes are receivers of a perform, and
+ * what parameter types their methods have. All these classes are loaded
+ * when the method map is loaded (or resolved), so archiving them with CDS
+ * saves loading, parsing and verifying them on every JVM start (see
+ * {@link CdsArchiveBuilder}).
+ * <p>
+ * The export works on the persisted data only, i.e. no class is loaded.
+ */
+public final class ClassListExporter {
+    private ClassListExporter() {
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     * ClassListExporter classListFilePath methodMapFilePath...
+     * </pre>
+     * The method map file paths are given without the ".methods" suffix, as
+     * for {@link Performer#saveMethods(String)}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ClassListExporter classListFilePath methodMapFilePath...");
+            System.exit(1);
+        }
+        exportClassList(args[0], Arrays.asList(args).subList(1, args.length));
+    }
+
+    /**
+     * Writes the class list for the method maps at {@code methodMapFilePaths}
+     * to {@code classListFilePath}.
+     */
+    public static void exportClassList(
+            String classListFilePath, List<String> methodMapFilePaths) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(
+                Paths.get(classListFilePath), StandardCharsets.UTF_8)) {
+            exportClassList(writer, methodMapFilePaths);
+        }
+    }
+
+    /**
+     * Writes a line with the name of every class referred to by the method
+     * maps at {@code methodMapFilePaths}, in the format of a CDS class list
+     * (i.e. "org/abego/Foo").
+     * <p>
+     * The receiver classes come first, in the order of the method maps
+     * (i.e. for a method map saved with usage profiling the "hot" classes
+     * first), followed by the parameter types.
+     */
+    public static void exportClassList(Writer writer, List<String> methodMapFilePaths) throws IOException {
+        Set<String> receiverClassNames = new LinkedHashSet<>();
+        Set<String> parameterTypeNames = new LinkedHashSet<>();
+        for (String methodMapFilePath : methodMapFilePaths) {
+            for (MethodMapBlock block : readBlocks(methodMapFilePath)) {
+                receiverClassNames.add(block.getClassName());
+                for (MethodMapEntry entry : block.getEntries()) {
+                    parameterTypeNames.addAll(Arrays.asList(entry.getParameterTypeNames()));
+                }
+            }
+        }
+
+        Set<String> classNames = new LinkedHashSet<>(receiverClassNames);
+        for (String typeName : parameterTypeNames) {
+            // primitive types and arrays are not loaded from class files
+            if (!ClassNames.isPrimitiveTypeName(typeName) && !typeName.startsWith("[")) {
+                classNames.add(typeName);
+            }
+        }
+        for (String className : classNames) {
+            writer.write(className.replace('.', '/'));
+            writer.write('\n');
+        }
+    }
+
+    private static List<MethodMapBlock> readBlocks(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(Paths.get(filePath + ".methods"))))) {
+            return MethodMapFile.read(in);
+        }
+    }
+}
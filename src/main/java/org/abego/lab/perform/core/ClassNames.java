@@ -0,0 +1,49 @@
+package org.abego.lab.perform.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves class names, as returned by {@link Class#getName()}, into classes.
+ * <p>
+ * In contrast to {@link Class#forName(String)} this also handles the names
+ * of primitive types ("int", "void", ...) and never initializes the class.
+ */
+final class ClassNames {
+    private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{
+                boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVE_TYPES.put(type.getName(), type);
+        }
+    }
+
+    private ClassNames() {
+    }
+
+    static Class<?> forName(String className, ClassLoader classLoader)
+            throws ClassNotFoundException {
+        Class<?> type = PRIMITIVE_TYPES.get(className);
+        if (type != null) {
+            return type;
+        }
+        return Class.forName(className, false,
+                classLoader != null ? classLoader : defaultClassLoader());
+    }
+
+    static boolean isPrimitiveTypeName(String className) {
+        return PRIMITIVE_TYPES.containsKey(className);
+    }
+
+    static Class<?> forName(String className) throws ClassNotFoundException {
+        return forName(className, null);
+    }
+
+    static ClassLoader defaultClassLoader() {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null
+                ? contextClassLoader : ClassNames.class.getClassLoader();
+    }
+}
@@ -0,0 +1,32 @@
+package org.abego.lab.perform.core;
+
+/**
+ * The memoized value for a selector not understood by a class that has a
+ * {@code doesNotUnderstand:} handler.
+ * <p>
+ * Replaces the NoSuchMethodException memoized for the selector the first
+ * time the handler is needed, so following sends of the selector find the
+ * handler with the one lookup of the selector, without throwing an
+ * exception. When the method map is saved the entry is saved as the
+ * NoSuchMethodException.
+ */
+final class DoesNotUnderstandEntry {
+    private final NoSuchMethodException exception;
+    /**
+     * The Method or ClassExtension implementing {@code doesNotUnderstand:}.
+     */
+    private final Object handler;
+
+    DoesNotUnderstandEntry(NoSuchMethodException exception, Object handler) {
+        this.exception = exception;
+        this.handler = handler;
+    }
+
+    NoSuchMethodException getException() {
+        return exception;
+    }
+
+    Object getHandler() {
+        return handler;
+    }
+}
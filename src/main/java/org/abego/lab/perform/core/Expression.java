@@ -0,0 +1,398 @@
+package org.abego.lab.perform.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled Smalltalk-like message expression, like
+ * {@code order customer address city} or {@code x + 3 max: y}.
+ * <p>
+ * The expression is parsed once, into a tree of sends. Every send keeps the
+ * method resolved for the last receiver class ("inline cache"), so
+ * evaluating the expression again for values of the same classes costs
+ * about one cached dispatch per send. The cached methods are dropped
+ * whenever the method map changes in a way that may affect them (e.g. when
+ * a method map is loaded or an extension is added).
+ * <p>
+ * Syntax (with the usual Smalltalk precedence: unary before binary before
+ * keyword sends, left to right):
+ * <ul>
+ *     <li>unary sends: {@code receiver selector}</li>
+ *     <li>binary sends: {@code receiver + argument}, with selectors made of
+ *     the operator characters of {@link SelectorTranslator}</li>
+ *     <li>keyword sends: {@code receiver at: key put: value}</li>
+ *     <li>parentheses: {@code (x + 3) max: y}</li>
+ *     <li>variables, as passed to {@link #compile(String, String...)}</li>
+ *     <li>literals: integers (e.g. {@code 42}, {@code -1}), decimals (e.g.
+ *     {@code 3.14}), strings (e.g. {@code 'it''s'}), {@code true},
+ *     {@code false} and {@code nil}</li>
+ * </ul>
+ * An Expression may be shared by several threads.
+ */
+public final class Expression {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final String source;
+    private final List<String> variableNames;
+    private final Node root;
+
+    private Expression(String source, List<String> variableNames, Node root) {
+        this.source = source;
+        this.variableNames = variableNames;
+        this.root = root;
+    }
+
+    /**
+     * Returns the compiled {@code source} expression, using the
+     * {@code variableNames}.
+     * <p>
+     * Throws an {@link IllegalArgumentException} when the source is not a
+     * valid expression or uses an undefined variable.
+     */
+    public static Expression compile(String source, String... variableNames) {
+        List<String> names = Arrays.asList(variableNames.clone());
+        return new Expression(source, names, new Parser(source, names).parseAll());
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the names of the variables of the expression, in the order
+     * their values are passed to {@link #evaluate(Object...)}.
+     */
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Returns the value of the expression, with the variables set to the
+     * {@code values} (in the order of {@link #getVariableNames()}).
+     */
+    public Object evaluate(Object... values) {
+        if (values.length != variableNames.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected %d value(s) for %s, got %d",
+                    variableNames.size(), variableNames, values.length));
+        }
+        return root.evaluate(values);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    //region Nodes
+
+    private abstract static class Node {
+        abstract Object evaluate(Object[] values);
+    }
+
+    private static final class Literal extends Node {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Object[] values) {
+            return value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int index;
+
+        Variable(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object evaluate(Object[] values) {
+            return values[index];
+        }
+    }
+
+    private static final class Send extends Node {
+        private static final class Resolution {
+            final Class<?> type;
+            final long epoch;
+            /**
+             * The Method or ClassExtension to invoke, or {@code null} when
+             * the send needs a regular perform.
+             */
+            final Object methodOrExtension;
+
+            Resolution(Class<?> type, long epoch, Object methodOrExtension) {
+                this.type = type;
+                this.epoch = epoch;
+                this.methodOrExtension = methodOrExtension;
+            }
+        }
+
+        private final Node receiver;
+        private final String selector;
+        private final Node[] arguments;
+        private volatile Resolution resolution;
+
+        Send(Node receiver, String selector, Node[] arguments) {
+            this.receiver = receiver;
+            this.selector = selector;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object evaluate(Object[] values) {
+            Object receiverValue = receiver.evaluate(values);
+            Object[] argumentValues = arguments.length == 0 ? NO_ARGUMENTS : new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                argumentValues[i] = arguments[i].evaluate(values);
+            }
+            if (receiverValue == null) {
+                throw new UnsupportedOperationException(
+                        String.format("nil does not understand '%s'", selector));
+            }
+            Class<?> type = receiverValue.getClass();
+            long epoch = Performer.getEpoch();
+            Resolution r = resolution;
+            if (r == null || r.type != type || r.epoch != epoch) {
+                r = new Resolution(type, epoch, Performer.resolve(type, selector, argumentValues));
+                resolution = r;
+            }
+            return Performer.performResolved(receiverValue, selector, r.methodOrExtension, argumentValues);
+        }
+    }
+
+    //endregion
+
+    //region Parser
+
+    private static final class Parser {
+        private final String source;
+        private final List<String> variableNames;
+        private int position;
+
+        Parser(String source, List<String> variableNames) {
+            this.source = source;
+            this.variableNames = variableNames;
+        }
+
+        Node parseAll() {
+            Node result = parseKeywordSend();
+            skipWhitespace();
+            if (position < source.length()) {
+                throw syntaxError("Unexpected '" + source.charAt(position) + "'");
+            }
+            return result;
+        }
+
+        private Node parseKeywordSend() {
+            Node receiver = parseBinarySend();
+            StringBuilder selector = new StringBuilder();
+            List<Node> arguments = new ArrayList<>();
+            String keyword;
+            while ((keyword = nextKeyword()) != null) {
+                selector.append(keyword);
+                arguments.add(parseBinarySend());
+            }
+            return arguments.isEmpty()
+                    ? receiver
+                    : new Send(receiver, selector.toString(), arguments.toArray(new Node[0]));
+        }
+
+        private Node parseBinarySend() {
+            Node result = parseUnarySend();
+            String operator;
+            while ((operator = nextOperator()) != null) {
+                result = new Send(result, operator, new Node[]{parseUnarySend()});
+            }
+            return result;
+        }
+
+        private Node parseUnarySend() {
+            Node result = parsePrimary();
+            String selector;
+            while ((selector = nextUnarySelector()) != null) {
+                result = new Send(result, selector, new Node[0]);
+            }
+            return result;
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (position >= source.length()) {
+                throw syntaxError("Expression expected");
+            }
+            char c = source.charAt(position);
+            if (c == '(') {
+                position++;
+                Node result = parseKeywordSend();
+                skipWhitespace();
+                if (position >= source.length() || source.charAt(position) != ')') {
+                    throw syntaxError("')' expected");
+                }
+                position++;
+                return result;
+            }
+            if (c == '\'') {
+                return new Literal(parseString());
+            }
+            if (Character.isDigit(c) || c == '-' && isDigitAt(position + 1)) {
+                return new Literal(parseNumber());
+            }
+            if (isIdentifierStart(c)) {
+                int start = position;
+                String name = parseIdentifier();
+                if (position < source.length() && source.charAt(position) == ':') {
+                    position = start;
+                    throw syntaxError("Unexpected keyword '" + name + ":'");
+                }
+                switch (name) {
+                    case "true":
+                        return new Literal(Boolean.TRUE);
+                    case "false":
+                        return new Literal(Boolean.FALSE);
+                    case "nil":
+                        return new Literal(null);
+                    default:
+                        int index = variableNames.indexOf(name);
+                        if (index < 0) {
+                            position = start;
+                            throw syntaxError("Undefined variable '" + name + "'");
+                        }
+                        return new Variable(index);
+                }
+            }
+            throw syntaxError("Unexpected '" + c + "'");
+        }
+
+        /**
+         * Returns the next unary selector (and moves behind it), or
+         * {@code null} when the next token is not a unary selector.
+         */
+        private String nextUnarySelector() {
+            skipWhitespace();
+            if (position >= source.length() || !isIdentifierStart(source.charAt(position))) {
+                return null;
+            }
+            int start = position;
+            String name = parseIdentifier();
+            if (position < source.length() && source.charAt(position) == ':') {
+                // a keyword, not a unary selector
+                position = start;
+                return null;
+            }
+            return name;
+        }
+
+        /**
+         * Returns the next keyword (including the colon, and moves behind
+         * it), or {@code null} when the next token is not a keyword.
+         */
+        private String nextKeyword() {
+            skipWhitespace();
+            if (position >= source.length() || !isIdentifierStart(source.charAt(position))) {
+                return null;
+            }
+            String name = parseIdentifier();
+            if (position >= source.length() || source.charAt(position) != ':') {
+                throw syntaxError("Keyword expected");
+            }
+            position++;
+            return name + ":";
+        }
+
+        /**
+         * Returns the next binary selector (and moves behind it), or
+         * {@code null} when the next token is not a binary selector.
+         */
+        private String nextOperator() {
+            skipWhitespace();
+            int start = position;
+            while (position < source.length() && SelectorTranslator.isOperatorChar(source.charAt(position))) {
+                position++;
+            }
+            return position > start ? source.substring(start, position) : null;
+        }
+
+        private String parseIdentifier() {
+            int start = position;
+            while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            return source.substring(start, position);
+        }
+
+        private String parseString() {
+            StringBuilder result = new StringBuilder();
+            position++;
+            while (true) {
+                if (position >= source.length()) {
+                    throw syntaxError("Unterminated string");
+                }
+                char c = source.charAt(position++);
+                if (c == '\'') {
+                    if (position < source.length() && source.charAt(position) == '\'') {
+                        position++;
+                    } else {
+                        return result.toString();
+                    }
+                }
+                result.append(c);
+            }
+        }
+
+        private Object parseNumber() {
+            int start = position;
+            if (source.charAt(position) == '-') {
+                position++;
+            }
+            while (isDigitAt(position)) {
+                position++;
+            }
+            if (position < source.length() && source.charAt(position) == '.' && isDigitAt(position + 1)) {
+                position++;
+                while (isDigitAt(position)) {
+                    position++;
+                }
+                return Double.valueOf(source.substring(start, position));
+            }
+            String text = source.substring(start, position);
+            try {
+                long value = Long.parseLong(text);
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                position = start;
+                throw syntaxError("Number too large");
+            }
+        }
+
+        private boolean isDigitAt(int index) {
+            return index < source.length() && Character.isDigit(source.charAt(index));
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return Character.isJavaIdentifierStart(c) && c != '$';
+        }
+
+        private void skipWhitespace() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException syntaxError(String message) {
+            return new IllegalArgumentException(String.format(
+                    "%s at position %d in '%s'", message, position, source));
+        }
+    }
+
+    //endregion
+}
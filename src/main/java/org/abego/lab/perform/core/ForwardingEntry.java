@@ -0,0 +1,45 @@
+package org.abego.lab.perform.core;
+
+/**
+ * The memoized value for a selector not understood by a
+ * {@link ForwardingProxy} class.
+ * <p>
+ * Remembers the Method (or ClassExtension) the selector was last forwarded
+ * to, together with the class of the target ("inline cache"). When the
+ * method map is saved the entry is saved as the NoSuchMethodException.
+ */
+final class ForwardingEntry {
+    private static final class Target {
+        final Class<?> type;
+        final Object methodOrExtension;
+
+        Target(Class<?> type, Object methodOrExtension) {
+            this.type = type;
+            this.methodOrExtension = methodOrExtension;
+        }
+    }
+
+    private final NoSuchMethodException exception;
+    private volatile Target lastTarget;
+
+    ForwardingEntry(NoSuchMethodException exception) {
+        this.exception = exception;
+    }
+
+    NoSuchMethodException getException() {
+        return exception;
+    }
+
+    /**
+     * Returns the Method (or ClassExtension) to forward to for a target of
+     * class {@code type}, or {@code null} when not known.
+     */
+    Object methodOrExtensionFor(Class<?> type) {
+        Target target = lastTarget;
+        return target != null && target.type == type ? target.methodOrExtension : null;
+    }
+
+    void setTarget(Class<?> type, Object methodOrExtension) {
+        lastTarget = new Target(type, methodOrExtension);
+    }
+}
@@ -0,0 +1,18 @@
+package org.abego.lab.perform.core;
+
+/**
+ * A receiver forwarding the messages it does not understand to its target,
+ * e.g. a remote stub or a decorator.
+ * <p>
+ * The first time a proxy class does not understand a selector
+ * {@link Performer} memoizes a forwarding entry for it, remembering the
+ * method of the target class. Later sends of the selector to a proxy of that
+ * class directly invoke the target's method, as long as the target is of
+ * the same class.
+ */
+public interface ForwardingProxy {
+    /**
+     * Returns the object to forward the messages to.
+     */
+    Object getForwardingTarget();
+}
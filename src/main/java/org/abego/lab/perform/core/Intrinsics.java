@@ -0,0 +1,259 @@
+package org.abego.lab.perform.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongBinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A table of hand-written implementations ("intrinsics") for (receiver
+ * type, selector) pairs, consulted by {@link Performer}.
+ * <p>
+ * The built-in intrinsics cover arithmetic and comparison selectors of
+ * {@code Integer}, {@code Long} and {@code Double} receivers, the
+ * concatenation of {@code String}s and the {@code value} selectors of the
+ * {@code java.util.function} interfaces.
+ * <p>
+ * An intrinsic registered for a type applies to the type's subtypes, too.
+ * Intrinsics of classes take precedence over the ones of superclasses. The
+ * intrinsics of classes are consulted before the method lookup, the ones of
+ * interfaces only when the lookup finds no method, so a method the receiver
+ * declares itself (e.g. {@code value()} of a {@code Runnable}) is not
+ * replaced by an interface intrinsic. The intrinsics of a receiver class
+ * are collected once (per table change) and cached in a {@link ClassValue},
+ * so a receiver without intrinsics costs one class value lookup.
+ */
+final class Intrinsics {
+    /**
+     * (type -> (selector -> intrinsic)), in the order of registration.
+     */
+    private final Map<Class<?>, Map<String, ClassExtension>> typeToIntrinsics = new LinkedHashMap<>();
+    private volatile ClassValue<Map<String, ClassExtension>> classToIntrinsics = newClassToIntrinsics(false);
+    private volatile ClassValue<Map<String, ClassExtension>> classToInterfaceIntrinsics = newClassToIntrinsics(true);
+
+    /**
+     * Returns the table with the built-in intrinsics.
+     */
+    @SuppressWarnings("unchecked")
+    static Intrinsics withBuiltins() {
+        Intrinsics result = new Intrinsics();
+        result.addNumberIntrinsics(Integer.class);
+        result.addNumberIntrinsics(Long.class);
+        result.addNumberIntrinsics(Double.class);
+
+        result.add(String.class, ",", (receiver, arguments) ->
+                (String) receiver + argument(",", arguments));
+        result.add(String.class, "size", (receiver, arguments) ->
+                ((String) receiver).length());
+
+        result.add(Supplier.class, "value", (receiver, arguments) ->
+                ((Supplier<?>) receiver).get());
+        result.add(Runnable.class, "value", (receiver, arguments) -> {
+            ((Runnable) receiver).run();
+            return null;
+        });
+        result.add(Function.class, "value:", (receiver, arguments) ->
+                ((Function<Object, ?>) receiver).apply(argument("value:", arguments)));
+        result.add(Predicate.class, "value:", (receiver, arguments) ->
+                ((Predicate<Object>) receiver).test(argument("value:", arguments)));
+        result.add(Consumer.class, "value:", (receiver, arguments) -> {
+            ((Consumer<Object>) receiver).accept(argument("value:", arguments));
+            return null;
+        });
+        result.add(BiFunction.class, "value:value:", (receiver, arguments) -> {
+            Object[] args = arguments("value:value:", arguments, 2);
+            return ((BiFunction<Object, Object, ?>) receiver).apply(args[0], args[1]);
+        });
+        result.add(BiPredicate.class, "value:value:", (receiver, arguments) -> {
+            Object[] args = arguments("value:value:", arguments, 2);
+            return ((BiPredicate<Object, Object>) receiver).test(args[0], args[1]);
+        });
+        result.add(BiConsumer.class, "value:value:", (receiver, arguments) -> {
+            Object[] args = arguments("value:value:", arguments, 2);
+            ((BiConsumer<Object, Object>) receiver).accept(args[0], args[1]);
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Returns the intrinsic of a class for {@code selector} sent to an
+     * instance of {@code type}, or {@code null} when there is none.
+     */
+    ClassExtension get(Class<?> type, String selector) {
+        return classToIntrinsics.get(type).get(selector);
+    }
+
+    /**
+     * Returns the intrinsic of an interface for {@code selector} sent to an
+     * instance of {@code type}, or {@code null} when there is none.
+     */
+    ClassExtension getInterfaceIntrinsic(Class<?> type, String selector) {
+        return classToInterfaceIntrinsics.get(type).get(selector);
+    }
+
+    /**
+     * Returns the intrinsics of classes (selector -> intrinsic) for
+     * instances of {@code type}.
+     */
+    Map<String, ClassExtension> get(Class<?> type) {
+        return classToIntrinsics.get(type);
+    }
+
+    synchronized void add(Class<?> type, String selector, ClassExtension intrinsic) {
+        typeToIntrinsics.computeIfAbsent(type, t -> new HashMap<>()).put(selector, intrinsic);
+        classToIntrinsics = newClassToIntrinsics(false);
+        classToInterfaceIntrinsics = newClassToIntrinsics(true);
+    }
+
+    synchronized void remove(Class<?> type, String selector) {
+        Map<String, ClassExtension> intrinsics = typeToIntrinsics.get(type);
+        if (intrinsics != null && intrinsics.remove(selector) != null) {
+            if (intrinsics.isEmpty()) {
+                typeToIntrinsics.remove(type);
+            }
+            classToIntrinsics = newClassToIntrinsics(false);
+            classToInterfaceIntrinsics = newClassToIntrinsics(true);
+        }
+    }
+
+    private ClassValue<Map<String, ClassExtension>> newClassToIntrinsics(boolean ofInterfaces) {
+        return new ClassValue<Map<String, ClassExtension>>() {
+            @Override
+            protected Map<String, ClassExtension> computeValue(Class<?> type) {
+                return collectIntrinsics(type, ofInterfaces);
+            }
+        };
+    }
+
+    private synchronized Map<String, ClassExtension> collectIntrinsics(Class<?> type, boolean ofInterfaces) {
+        List<Map<String, ClassExtension>> applicable = new ArrayList<>();
+        if (ofInterfaces) {
+            for (Map.Entry<Class<?>, Map<String, ClassExtension>> entry : typeToIntrinsics.entrySet()) {
+                if (entry.getKey().isInterface() && entry.getKey().isAssignableFrom(type)) {
+                    applicable.add(entry.getValue());
+                }
+            }
+        } else {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                Map<String, ClassExtension> intrinsics = typeToIntrinsics.get(c);
+                if (intrinsics != null) {
+                    applicable.add(intrinsics);
+                }
+            }
+        }
+        if (applicable.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, ClassExtension> result = new HashMap<>();
+        for (Map<String, ClassExtension> intrinsics : applicable) {
+            intrinsics.forEach(result::putIfAbsent);
+        }
+        return result;
+    }
+
+    //region Numbers
+
+    private void addNumberIntrinsics(Class<? extends Number> type) {
+        add(type, "+", (receiver, arguments) ->
+                arithmetic("+", receiver, arguments, (a, b) -> a + b, (a, b) -> a + b));
+        add(type, "-", (receiver, arguments) ->
+                arithmetic("-", receiver, arguments, (a, b) -> a - b, (a, b) -> a - b));
+        add(type, "*", (receiver, arguments) ->
+                arithmetic("*", receiver, arguments, (a, b) -> a * b, (a, b) -> a * b));
+        add(type, "/", (receiver, arguments) ->
+                arithmetic("/", receiver, arguments, (a, b) -> a / b, (a, b) -> a / b));
+        add(type, "<", (receiver, arguments) ->
+                comparison("<", receiver, arguments, c -> c < 0));
+        add(type, ">", (receiver, arguments) ->
+                comparison(">", receiver, arguments, c -> c > 0));
+        add(type, "<=", (receiver, arguments) ->
+                comparison("<=", receiver, arguments, c -> c <= 0));
+        add(type, ">=", (receiver, arguments) ->
+                comparison(">=", receiver, arguments, c -> c >= 0));
+        add(type, "=", (receiver, arguments) -> {
+            Object argument = argument("=", arguments);
+            return isSupportedNumber(argument) && compare((Number) receiver, (Number) argument) == 0;
+        });
+        add(type, "max:", (receiver, arguments) -> {
+            Number argument = numberArgument("max:", arguments);
+            return compare((Number) receiver, argument) >= 0 ? receiver : argument;
+        });
+        add(type, "min:", (receiver, arguments) -> {
+            Number argument = numberArgument("min:", arguments);
+            return compare((Number) receiver, argument) <= 0 ? receiver : argument;
+        });
+    }
+
+    /**
+     * Returns the result of the arithmetic operation, with Java semantics:
+     * a {@code Double} when one operand is a {@code Double}, an
+     * {@code Integer} when both are {@code Integer}s, else a {@code Long}.
+     */
+    private static Object arithmetic(
+            String selector, Object receiver, Object[] arguments,
+            LongBinaryOperator longOperator, DoubleBinaryOperator doubleOperator) {
+        Number a = (Number) receiver;
+        Number b = numberArgument(selector, arguments);
+        if (a instanceof Double || b instanceof Double) {
+            return doubleOperator.applyAsDouble(a.doubleValue(), b.doubleValue());
+        }
+        long result = longOperator.applyAsLong(a.longValue(), b.longValue());
+        if (a instanceof Integer && b instanceof Integer) {
+            // same result as the int operation (incl. overflow)
+            return (int) result;
+        }
+        return result;
+    }
+
+    private static boolean comparison(
+            String selector, Object receiver, Object[] arguments, IntPredicate test) {
+        return test.test(compare((Number) receiver, numberArgument(selector, arguments)));
+    }
+
+    private static int compare(Number a, Number b) {
+        return a instanceof Double || b instanceof Double
+                ? Double.compare(a.doubleValue(), b.doubleValue())
+                : Long.compare(a.longValue(), b.longValue());
+    }
+
+    private static boolean isSupportedNumber(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double;
+    }
+
+    private static Number numberArgument(String selector, Object[] arguments) {
+        Object argument = argument(selector, arguments);
+        if (!isSupportedNumber(argument)) {
+            throw new IllegalArgumentException(String.format(
+                    "'%s' expects an Integer, Long or Double argument, got %s", selector, argument));
+        }
+        return (Number) argument;
+    }
+
+    //endregion
+
+    private static Object argument(String selector, Object[] arguments) {
+        return arguments(selector, arguments, 1)[0];
+    }
+
+    private static Object[] arguments(String selector, Object[] arguments, int expectedCount) {
+        int argumentCount = arguments != null ? arguments.length : 0;
+        if (argumentCount != expectedCount) {
+            throw new IllegalArgumentException(String.format(
+                    "'%s' expects %d argument(s), got %d", selector, expectedCount, argumentCount));
+        }
+        return arguments;
+    }
+}
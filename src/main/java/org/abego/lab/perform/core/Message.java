@@ -0,0 +1,35 @@
+package org.abego.lab.perform.core;
+
+import java.util.Arrays;
+
+/**
+ * A message (selector and arguments), e.g. as passed to a receiver's
+ * {@code doesNotUnderstand(Message)} handler or used in a {@link Cascade}.
+ */
+public final class Message {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final String selector;
+    private final Object[] arguments;
+
+    public Message(String selector, Object[] arguments) {
+        this.selector = selector;
+        this.arguments = arguments != null ? arguments : NO_ARGUMENTS;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    /**
+     * Returns the arguments of the message (not a copy).
+     */
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public String toString() {
+        return selector + Arrays.toString(arguments);
+    }
+}
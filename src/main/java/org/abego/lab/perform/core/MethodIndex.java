@@ -0,0 +1,162 @@
+package org.abego.lab.perform.core;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * An index of the public methods of a class (as returned by
+ * {@link Class#getMethods()}), by method name.
+ * <p>
+ * Looking up many methods of a class via the index is cheaper than calling
+ * {@link Class#getMethod(String, Class[])} for every method, as every
+ * reflective lookup searches (and copies) the methods of the class again.
+ */
+final class MethodIndex {
+    private static final Method[] NO_METHODS = new Method[0];
+
+    /**
+     * The indexes of the classes seen so far.
+     * <p>
+     * Using a ClassValue the index is dropped together with its class, i.e.
+     * the cache does not prevent unloading classes.
+     */
+    private static final ClassValue<MethodIndex> CACHE = new ClassValue<MethodIndex>() {
+        @Override
+        protected MethodIndex computeValue(Class<?> type) {
+            return of(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Map<String, Method[]> nameToMethods;
+
+    private MethodIndex(Class<?> type, Map<String, Method[]> nameToMethods) {
+        this.type = type;
+        this.nameToMethods = nameToMethods;
+    }
+
+    /**
+     * Returns the (cached) index of the {@code type}, creating it on the
+     * first call for the type.
+     */
+    static MethodIndex forClass(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Returns a new index of the {@code type}, e.g. to resolve many methods
+     * of a class once, without keeping the index.
+     */
+    static MethodIndex of(Class<?> type) {
+        Method[] methods = type.getMethods();
+        Map<String, Method[]> nameToMethods = new LinkedHashMap<>(methods.length * 2);
+        for (Method method : methods) {
+            nameToMethods.merge(method.getName(), new Method[]{method}, MethodIndex::concat);
+        }
+        return new MethodIndex(type, nameToMethods);
+    }
+
+    /**
+     * Returns the names of all public methods.
+     */
+    Set<String> getMethodNames() {
+        return nameToMethods.keySet();
+    }
+
+    /**
+     * Returns the public methods named {@code methodName}, in the order
+     * returned by {@link Class#getMethods()}.
+     */
+    Method[] getMethods(String methodName) {
+        return nameToMethods.getOrDefault(methodName, NO_METHODS);
+    }
+
+    /**
+     * Returns the same method as
+     * {@link Class#getMethod(String, Class[]) type.getMethod(methodName, parameterTypes)}.
+     */
+    Method getMethod(String methodName, Class<?>[] parameterTypes) throws NoSuchMethodException {
+        Method result = null;
+        for (Method method : getMethods(methodName)) {
+            if (Arrays.equals(method.getParameterTypes(), parameterTypes)) {
+                result = moreSpecific(result, method);
+            }
+        }
+        if (result == null) {
+            throw newNoSuchMethodException(methodName, parameterTypeNames(parameterTypes));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the same method as {@link #getMethod(String, Class[])}, with
+     * the parameter types given by their names ({@link Class#getName()}).
+     * <p>
+     * As the names are compared with the parameter types of the methods no
+     * parameter type needs to be resolved.
+     */
+    Method getMethod(String methodName, String[] parameterTypeNames) throws NoSuchMethodException {
+        Method result = null;
+        for (Method method : getMethods(methodName)) {
+            if (method.getParameterCount() == parameterTypeNames.length
+                    && hasParameterTypes(method, parameterTypeNames)) {
+                result = moreSpecific(result, method);
+            }
+        }
+        if (result == null) {
+            throw newNoSuchMethodException(methodName, parameterTypeNames);
+        }
+        return result;
+    }
+
+    private static boolean hasParameterTypes(Method method, String[] parameterTypeNames) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (!parameterTypes[i].getName().equals(parameterTypeNames[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Of two methods with the same name and parameter types (e.g. a method
+     * and the bridge method for a covariant return type) returns the one
+     * with the more specific return type, like
+     * {@link Class#getMethod(String, Class[])}.
+     */
+    private static Method moreSpecific(Method methodOrNull, Method method) {
+        if (methodOrNull == null
+                || methodOrNull.getReturnType().isAssignableFrom(method.getReturnType())) {
+            return method;
+        }
+        return methodOrNull;
+    }
+
+    private NoSuchMethodException newNoSuchMethodException(String methodName, String[] parameterTypeNames) {
+        // same message as the one of Class.getMethod
+        StringJoiner parameters = new StringJoiner(",", "(", ")");
+        for (String parameterTypeName : parameterTypeNames) {
+            parameters.add(parameterTypeName);
+        }
+        return new NoSuchMethodException(type.getName() + "." + methodName + parameters);
+    }
+
+    private static String[] parameterTypeNames(Class<?>[] parameterTypes) {
+        String[] result = new String[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            result[i] = parameterTypes[i].getName();
+        }
+        return result;
+    }
+
+    private static Method[] concat(Method[] a, Method[] b) {
+        Method[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,183 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A Java agent resolving the entries of a method map (in the
+ * {@link MethodMapFormat#BLOCKS} format) as the classes of the method map
+ * are defined, for applications that cannot call
+ * {@link Performer#loadMethods(String)} early.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -javaagent:perform.jar=methodMapFilePath ...
+ * </pre>
+ * (the file path without the ".methods" suffix; the jar's manifest defines
+ * this class as {@code Premain-Class}).
+ * <p>
+ * The agent enables memoization and registers a {@link ClassFileTransformer}
+ * that never changes a class, but queues the block of every class of the
+ * method map when the class is defined. A background thread resolves the
+ * queued blocks and adds their entries to the method map of the
+ * {@link Performer}, so they are usually ready before the first perform on
+ * an instance of the class. For classes not in the method map the agent only
+ * adds a hash lookup to the class definition.
+ * <p>
+ * Entries are only added to the method map current at the time the block is
+ * resolved, i.e. replacing the method map (e.g. with
+ * {@link Performer#loadMethods(String)}) drops the entries resolved so far.
+ */
+public final class MethodMapAgent {
+    private static final class PendingClass {
+        final String className;
+        final ClassLoader classLoader;
+        final MethodMapBlock block;
+
+        PendingClass(String className, ClassLoader classLoader, MethodMapBlock block) {
+            this.className = className;
+            this.classLoader = classLoader;
+            this.block = block;
+        }
+    }
+
+    /**
+     * (internal class name, e.g. "java/lang/String" -> block) of the blocks
+     * whose class was not yet defined.
+     */
+    private static final Map<String, MethodMapBlock> waitingBlocks = new ConcurrentHashMap<>();
+    private static final BlockingQueue<PendingClass> queue = new LinkedBlockingQueue<>();
+    /**
+     * The number of queued classes not yet completely resolved.
+     */
+    private static int unresolvedCount;
+
+    private MethodMapAgent() {
+    }
+
+    public static void premain(String agentArgs, Instrumentation instrumentation) throws IOException {
+        if (agentArgs == null || agentArgs.isEmpty()) {
+            throw new IllegalArgumentException("Usage: -javaagent:perform.jar=methodMapFilePath");
+        }
+        List<MethodMapBlock> blocks;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(Paths.get(agentArgs + ".methods"))))) {
+            blocks = MethodMapFile.read(in);
+        }
+        for (MethodMapBlock block : blocks) {
+            waitingBlocks.put(block.getClassName().replace('.', '/'), block);
+        }
+
+        Performer.setMemoizationEnabled(true);
+        Thread thread = new Thread(MethodMapAgent::resolvePendingClasses, "perform-method-map-agent");
+        thread.setDaemon(true);
+        thread.start();
+
+        instrumentation.addTransformer(new ClassFileTransformer() {
+            @Override
+            public byte[] transform(
+                    ClassLoader loader,
+                    String className,
+                    Class<?> classBeingRedefined,
+                    ProtectionDomain protectionDomain,
+                    byte[] classfileBuffer) {
+                if (className != null && classBeingRedefined == null) {
+                    classDefined(className, loader);
+                }
+                // never change the class
+                return null;
+            }
+        });
+        // classes defined before the transformer was registered
+        for (Class<?> type : instrumentation.getAllLoadedClasses()) {
+            if (!type.isArray() && !type.isPrimitive()) {
+                classDefined(type.getName().replace('.', '/'), type.getClassLoader());
+            }
+        }
+    }
+
+    /**
+     * Waits until all classes of the method map defined so far are resolved
+     * (for tests).
+     */
+    static void awaitResolved() throws InterruptedException {
+        synchronized (queue) {
+            while (unresolvedCount > 0) {
+                queue.wait();
+            }
+        }
+    }
+
+    private static void classDefined(String internalClassName, ClassLoader classLoader) {
+        MethodMapBlock block = waitingBlocks.remove(internalClassName);
+        if (block != null) {
+            synchronized (queue) {
+                unresolvedCount++;
+            }
+            queue.add(new PendingClass(block.getClassName(), classLoader, block));
+        }
+    }
+
+    private static void resolvePendingClasses() {
+        while (true) {
+            PendingClass pendingClass;
+            try {
+                pendingClass = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                resolve(pendingClass);
+            } finally {
+                synchronized (queue) {
+                    unresolvedCount--;
+                    queue.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static void resolve(PendingClass pendingClass) {
+        Class<?> type;
+        try {
+            // waits until the class is completely defined
+            type = ClassNames.forName(pendingClass.className, pendingClass.classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return;
+        }
+        MethodMapBlock block = pendingClass.block;
+        if (!block.isValidFor(type)) {
+            return;
+        }
+        Map<String, Object> selectorToMethodMap = new HashMap<>();
+        MethodIndex methodIndex = MethodIndex.of(type);
+        for (MethodMapEntry entry : block.getEntries()) {
+            Object value;
+            if (entry.isNoSuchMethod()) {
+                value = entry.newNoSuchMethodException();
+            } else {
+                try {
+                    value = entry.getMethod(methodIndex);
+                } catch (NoSuchMethodException e) {
+                    // the block does not match the class, in spite of the
+                    // matching fingerprint. Drop the block.
+                    return;
+                }
+            }
+            selectorToMethodMap.put(entry.getSelector(), value);
+        }
+        Performer.addResolvedMethods(type, selectorToMethodMap);
+    }
+}
@@ -0,0 +1,115 @@
+package org.abego.lab.perform.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All persisted entries of one class of a method map.
+ * <p>
+ * In the "blocks" file format every class is stored in its own block that
+ * can be read (and decompressed) independently of all other blocks. A block
+ * read from a file keeps its stored payload until its entries are needed
+ * the first time, so blocks never used (e.g. of classes not available) are
+ * never decompressed, and the blocks used can be decompressed in parallel.
+ * <p>
+ * Every block is stamped with the {@link ClassFingerprint} of its class at
+ * the time the block was written. When the class changed since then the
+ * entries of the block are considered stale and are dropped.
+ */
+final class MethodMapBlock {
+    private final String className;
+    private final long fingerprint;
+    /**
+     * {@code null} as long as the {@link #storedPayload} is not decoded.
+     */
+    private volatile List<MethodMapEntry> entries;
+    private byte[] storedPayload;
+    private final int payloadLength;
+    private final boolean compressed;
+    private final boolean hasUnusedRuns;
+    /**
+     * {@code null} as long as the fingerprint was not checked against the
+     * current class.
+     */
+    private Boolean isValid;
+
+    MethodMapBlock(String className, long fingerprint, List<MethodMapEntry> entries) {
+        this.className = className;
+        this.fingerprint = fingerprint;
+        this.entries = entries;
+        this.payloadLength = 0;
+        this.compressed = false;
+        this.hasUnusedRuns = true;
+    }
+
+    /**
+     * Creates a block with the entries in the {@code storedPayload} of a
+     * method map file (see {@link MethodMapFile}), decoded when needed.
+     */
+    MethodMapBlock(String className, long fingerprint,
+                   byte[] storedPayload, int payloadLength, boolean compressed, boolean hasUnusedRuns) {
+        this.className = className;
+        this.fingerprint = fingerprint;
+        this.storedPayload = storedPayload;
+        this.payloadLength = payloadLength;
+        this.compressed = compressed;
+        this.hasUnusedRuns = hasUnusedRuns;
+    }
+
+    MethodMapBlock(String className, long fingerprint) {
+        this(className, fingerprint, new ArrayList<>());
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the entries of the block, decoding (and decompressing) the
+     * stored payload on the first call.
+     *
+     * @throws UncheckedIOException when the stored payload is corrupt.
+     */
+    List<MethodMapEntry> getEntries() {
+        List<MethodMapEntry> result = entries;
+        if (result == null) {
+            result = decodeEntries();
+        }
+        return result;
+    }
+
+    private synchronized List<MethodMapEntry> decodeEntries() {
+        if (entries == null) {
+            try {
+                entries = MethodMapFile.readEntries(
+                        this, storedPayload, payloadLength, compressed, hasUnusedRuns);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            storedPayload = null;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns {@code true} when the entries of this block can be used for
+     * {@code type}, i.e. when {@code type} did not change since the block
+     * was written.
+     * <p>
+     * The (rather expensive) check is only performed once per block.
+     */
+    boolean isValidFor(Class<?> type) {
+        Boolean result = isValid;
+        if (result == null) {
+            result = ClassFingerprint.of(type) == fingerprint;
+            isValid = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,173 @@
+package org.abego.lab.perform.core;
+
+import java.lang.reflect.Method;
+
+/**
+ * The persisted form of a single (selector -> Method|NoSuchMethodException)
+ * entry of a method map, as used by the "blocks" file format.
+ * <p>
+ * All types are stored by name, so an entry can be read without loading any
+ * class. When a method map is loaded lazily the entry itself is stored in the
+ * method map and is resolved into a {@link Method} the first time it is
+ * needed.
+ */
+final class MethodMapEntry {
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * The block this entry was read from, or {@code null} when the entry was
+     * not read from a file.
+     */
+    private final MethodMapBlock block;
+    private final String selector;
+    /**
+     * The name of the Java method, or {@code null} when the selector is not
+     * understood (i.e. the map contained a NoSuchMethodException).
+     */
+    private final String methodName;
+    private final String[] parameterTypeNames;
+    /**
+     * The position of the entry in the "first use" order of the run that
+     * saved the entry (starting at 1), or 0 when unknown.
+     *
+     * @see UsageProfile
+     */
+    private final int firstUse;
+    /**
+     * The number of times the entry was used in the run that saved the entry.
+     */
+    private final long hitCount;
+    /**
+     * The number of consecutive runs (up to the run that saved the entry)
+     * that did not use the entry.
+     *
+     * @see Performer#setPruneAfterUnusedRuns(int)
+     */
+    private final int unusedRuns;
+
+    private MethodMapEntry(
+            MethodMapBlock block, String selector, String methodName, String[] parameterTypeNames,
+            int firstUse, long hitCount, int unusedRuns) {
+        this.block = block;
+        this.selector = selector;
+        this.methodName = methodName;
+        this.parameterTypeNames = parameterTypeNames;
+        this.firstUse = firstUse;
+        this.hitCount = hitCount;
+        this.unusedRuns = unusedRuns;
+    }
+
+    static MethodMapEntry newMethodEntry(
+            MethodMapBlock block, String selector, String methodName, String[] parameterTypeNames,
+            int firstUse, long hitCount, int unusedRuns) {
+        return new MethodMapEntry(
+                block, selector, methodName, parameterTypeNames, firstUse, hitCount, unusedRuns);
+    }
+
+    static MethodMapEntry newMethodEntry(
+            MethodMapBlock block, String selector, String methodName, String[] parameterTypeNames) {
+        return newMethodEntry(block, selector, methodName, parameterTypeNames, 0, 0, 0);
+    }
+
+    static MethodMapEntry newMethodEntry(String selector, Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String[] parameterTypeNames = new String[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterTypeNames[i] = parameterTypes[i].getName();
+        }
+        return new MethodMapEntry(null, selector, method.getName(), parameterTypeNames, 0, 0, 0);
+    }
+
+    static MethodMapEntry newNoSuchMethodEntry(
+            MethodMapBlock block, String selector, int firstUse, long hitCount, int unusedRuns) {
+        return new MethodMapEntry(block, selector, null, NO_NAMES, firstUse, hitCount, unusedRuns);
+    }
+
+    static MethodMapEntry newNoSuchMethodEntry(String selector) {
+        return newNoSuchMethodEntry(null, selector, 0, 0, 0);
+    }
+
+    /**
+     * Returns a copy of this entry with the given usage data.
+     */
+    MethodMapEntry withUsage(int firstUse, long hitCount, int unusedRuns) {
+        return new MethodMapEntry(
+                block, selector, methodName, parameterTypeNames, firstUse, hitCount, unusedRuns);
+    }
+
+    MethodMapBlock getBlock() {
+        return block;
+    }
+
+    /**
+     * Returns {@code true} when this entry can be used for {@code type}, i.e.
+     * when {@code type} did not change since the entry was written.
+     */
+    boolean isValidFor(Class<?> type) {
+        return block == null || block.isValidFor(type);
+    }
+
+    String getSelector() {
+        return selector;
+    }
+
+    boolean isNoSuchMethod() {
+        return methodName == null;
+    }
+
+    String getMethodName() {
+        return methodName;
+    }
+
+    String[] getParameterTypeNames() {
+        return parameterTypeNames;
+    }
+
+    int getFirstUse() {
+        return firstUse;
+    }
+
+    long getHitCount() {
+        return hitCount;
+    }
+
+    int getUnusedRuns() {
+        return unusedRuns;
+    }
+
+    NoSuchMethodException newNoSuchMethodException() {
+        // same exception as created by the original getMethod implementation
+        return new NoSuchMethodException(selector);
+    }
+
+    /**
+     * Returns the method of this entry, looked up in the {@code methodIndex}
+     * of the class.
+     * <p>
+     * Cheaper than {@link #getMethodForClass(Class)} when resolving several
+     * entries of a class, and without resolving the parameter types.
+     */
+    Method getMethod(MethodIndex methodIndex) throws NoSuchMethodException {
+        if (isNoSuchMethod()) {
+            throw newNoSuchMethodException();
+        }
+        return methodIndex.getMethod(methodName, parameterTypeNames);
+    }
+
+    Method getMethodForClass(Class<?> type) throws NoSuchMethodException {
+        if (isNoSuchMethod()) {
+            throw newNoSuchMethodException();
+        }
+        Class<?>[] parameterTypes = new Class<?>[parameterTypeNames.length];
+        for (int i = 0; i < parameterTypeNames.length; i++) {
+            try {
+                parameterTypes[i] = ClassNames.forName(parameterTypeNames[i], type.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                NoSuchMethodException ex = new NoSuchMethodException(selector);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+        return type.getMethod(methodName, parameterTypes);
+    }
+}
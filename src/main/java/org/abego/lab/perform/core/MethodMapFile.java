@@ -0,0 +1,268 @@
+package org.abego.lab.perform.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes method maps in the "blocks" file format.
+ * <p>
+ * File layout:
+ * <pre>
+ * file    := MAGIC:int VERSION:short blockCount:int block*
+ * block   := className:UTF fingerprint:long compression:byte payloadLength:int
+ *            storedLength:int storedBytes:byte[storedLength]
+ * payload := entryCount:int entry*
+ * entry   := selector:UTF firstUse:varint hitCount:varint unusedRuns:varint
+ *            kind:byte [methodName:UTF parameterCount:short parameterTypeName:UTF*]
+ * </pre>
+ * ("varint": an unsigned number stored in 7-bit groups, least significant
+ * group first, the high bit set in all bytes but the last.)
+ * The payload of a block is either stored as it is or compressed with
+ * {@link Deflater}. As every block is compressed on its own any block can
+ * be decompressed without touching the other blocks. {@link #read} keeps
+ * the stored payloads, a block's payload is only decoded (and
+ * decompressed) when its entries are needed the first time (see
+ * {@link MethodMapBlock#getEntries()}), e.g. in a parallel loading task.
+ * <p>
+ * The fingerprint (see {@link ClassFingerprint}) allows to detect blocks
+ * of classes that changed after the block was written.
+ * <p>
+ * Files of the previous version (without {@code unusedRuns}) can still be
+ * read.
+ */
+final class MethodMapFile {
+    static final int MAGIC = 0x504D4D42; // "PMMB"
+    static final short VERSION = 4;
+    /**
+     * The oldest version that can still be read.
+     */
+    private static final short VERSION_WITHOUT_UNUSED_RUNS = 3;
+
+    private static final byte COMPRESSION_NONE = 0;
+    private static final byte COMPRESSION_DEFLATE = 1;
+
+    private static final byte KIND_METHOD = 0;
+    private static final byte KIND_NO_SUCH_METHOD = 1;
+
+    private MethodMapFile() {
+    }
+
+    /**
+     * Writes the {@code blocks}, compressing each block's payload with the
+     * given {@code compressionLevel} (see {@link Deflater}).
+     * <p>
+     * A {@code compressionLevel} of {@link Deflater#NO_COMPRESSION} stores the
+     * payloads uncompressed. Also payloads that do not get smaller when
+     * compressed are stored uncompressed.
+     */
+    static void write(
+            DataOutputStream out,
+            Collection<MethodMapBlock> blocks,
+            int compressionLevel) throws IOException {
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(blocks.size());
+
+        Deflater deflater = compressionLevel != Deflater.NO_COMPRESSION
+                ? new Deflater(compressionLevel) : null;
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+            DataOutputStream payloadOut = new DataOutputStream(payloadBytes);
+            for (MethodMapBlock block : blocks) {
+                payloadBytes.reset();
+                writePayload(payloadOut, block);
+                payloadOut.flush();
+                byte[] payload = payloadBytes.toByteArray();
+
+                byte[] compressed = deflater != null ? deflate(deflater, payload) : null;
+                boolean useCompressed = compressed != null && compressed.length < payload.length;
+
+                out.writeUTF(block.getClassName());
+                out.writeLong(block.getFingerprint());
+                out.writeByte(useCompressed ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+                out.writeInt(payload.length);
+                byte[] stored = useCompressed ? compressed : payload;
+                out.writeInt(stored.length);
+                out.write(stored);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    static List<MethodMapBlock> read(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a method map file (blocks format)");
+        }
+        short version = in.readShort();
+        if (version != VERSION && version != VERSION_WITHOUT_UNUSED_RUNS) {
+            throw new IOException(String.format(
+                    "Unsupported method map file version: %d (expected %d)", version, VERSION));
+        }
+        boolean hasUnusedRuns = version != VERSION_WITHOUT_UNUSED_RUNS;
+
+        int blockCount = in.readInt();
+        List<MethodMapBlock> result = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            String className = in.readUTF();
+            long fingerprint = in.readLong();
+            byte compression = in.readByte();
+            if (compression != COMPRESSION_NONE && compression != COMPRESSION_DEFLATE) {
+                throw new IOException(String.format(
+                        "Invalid compression %d in block of class %s", compression, className));
+            }
+            int payloadLength = in.readInt();
+            int storedLength = in.readInt();
+            byte[] stored = new byte[storedLength];
+            in.readFully(stored);
+
+            result.add(new MethodMapBlock(className, fingerprint,
+                    stored, payloadLength, compression == COMPRESSION_DEFLATE, hasUnusedRuns));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entries of the {@code block}, decoded from the payload
+     * {@code stored} in the file (decompressing it first when
+     * {@code compressed}).
+     */
+    static List<MethodMapEntry> readEntries(
+            MethodMapBlock block,
+            byte[] stored,
+            int payloadLength,
+            boolean compressed,
+            boolean hasUnusedRuns) throws IOException {
+
+        byte[] payload = stored;
+        if (compressed) {
+            Inflater inflater = new Inflater();
+            try {
+                payload = inflate(inflater, stored, payloadLength);
+            } finally {
+                inflater.end();
+            }
+        }
+        return readPayload(block, payload, hasUnusedRuns);
+    }
+
+    private static void writePayload(DataOutputStream out, MethodMapBlock block) throws IOException {
+        List<MethodMapEntry> entries = block.getEntries();
+        out.writeInt(entries.size());
+        for (MethodMapEntry entry : entries) {
+            out.writeUTF(entry.getSelector());
+            writeVarLong(out, entry.getFirstUse());
+            writeVarLong(out, entry.getHitCount());
+            writeVarLong(out, entry.getUnusedRuns());
+            if (entry.isNoSuchMethod()) {
+                out.writeByte(KIND_NO_SUCH_METHOD);
+            } else {
+                out.writeByte(KIND_METHOD);
+                out.writeUTF(entry.getMethodName());
+                String[] parameterTypeNames = entry.getParameterTypeNames();
+                out.writeShort(parameterTypeNames.length);
+                for (String name : parameterTypeNames) {
+                    out.writeUTF(name);
+                }
+            }
+        }
+    }
+
+    private static List<MethodMapEntry> readPayload(
+            MethodMapBlock block, byte[] payload, boolean hasUnusedRuns) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int entryCount = in.readInt();
+        List<MethodMapEntry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            String selector = in.readUTF();
+            int firstUse = (int) readVarLong(in);
+            long hitCount = readVarLong(in);
+            int unusedRuns = hasUnusedRuns ? (int) readVarLong(in) : 0;
+            byte kind = in.readByte();
+            if (kind == KIND_NO_SUCH_METHOD) {
+                entries.add(MethodMapEntry.newNoSuchMethodEntry(
+                        block, selector, firstUse, hitCount, unusedRuns));
+            } else if (kind == KIND_METHOD) {
+                String methodName = in.readUTF();
+                String[] parameterTypeNames = new String[in.readShort()];
+                for (int j = 0; j < parameterTypeNames.length; j++) {
+                    parameterTypeNames[j] = in.readUTF();
+                }
+                entries.add(MethodMapEntry.newMethodEntry(
+                        block, selector, methodName, parameterTypeNames, firstUse, hitCount, unusedRuns));
+            } else {
+                throw new IOException(String.format(
+                        "Invalid entry kind %d in block of class %s", kind, block.getClassName()));
+            }
+        }
+        return entries;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Invalid number in method map file");
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] data, int inflatedLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(data);
+        byte[] result = new byte[inflatedLength];
+        try {
+            int offset = 0;
+            while (offset < inflatedLength && !inflater.finished()) {
+                int n = inflater.inflate(result, offset, inflatedLength - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != inflatedLength) {
+                throw new IOException("Corrupt compressed block in method map file");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block in method map file", e);
+        }
+        return result;
+    }
+}
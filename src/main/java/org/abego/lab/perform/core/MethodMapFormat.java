@@ -0,0 +1,19 @@
+package org.abego.lab.perform.core;
+
+/**
+ * The file format used by {@link Performer#saveMethods(String)} and
+ * {@link Performer#loadMethods(String)}.
+ */
+public enum MethodMapFormat {
+    /**
+     * Java object streams, stored in a file with suffix ".ser".
+     */
+    OBJECT_STREAMS,
+    /**
+     * A binary format storing the entries of every class in a separate,
+     * optionally compressed block, stored in a file with suffix ".methods".
+     *
+     * @see Performer#setMethodMapCompressionLevel(int)
+     */
+    BLOCKS
+}
@@ -0,0 +1,370 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates a method map (in the {@link MethodMapFormat#BLOCKS} format) from
+ * compiled classes, e.g. at build time, so the first run after a build can
+ * already start with a "warm" method map.
+ * <p>
+ * The generator reads the ".class" files directly (see
+ * {@link ClassFileInfo}), i.e. the classes are neither loaded nor
+ * initialized. For every concrete class found in the given directories it
+ * writes an entry for every selector understood by the class, using the
+ * same rules as the original getMethod in {@link Performer} (e.g. the
+ * selector "+" maps to the method "plus"). The public methods inherited
+ * from super types are included, reading the super types' class files from
+ * the given directories or, if not found there, as resources of the class
+ * path.
+ * <p>
+ * Selectors not understood by a class (i.e. "NoSuchMethod" entries) cannot
+ * be known at build time and are not included.
+ * <p>
+ * The generated file can be shipped as a resource and loaded with
+ * {@link Performer#loadMethodsFromResource(String)}.
+ */
+public final class MethodMapGenerator {
+    private final List<Path> classesDirectories;
+    private final Map<String, ClassFileInfo> classFiles = new HashMap<>();
+    private final Map<String, List<ClassFileInfo.MethodInfo>> publicMethodsCache = new HashMap<>();
+    private final Map<String, Set<String>> superTypesCache = new HashMap<>();
+
+    private MethodMapGenerator(List<Path> classesDirectories) {
+        this.classesDirectories = classesDirectories;
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     * MethodMapGenerator [-compression level] [-package packagePrefix]... outputFilePath classesDirectory...
+     * </pre>
+     * The output file path is given without the ".methods" suffix, as for
+     * {@link Performer#saveMethods(String)}. When packages are given only
+     * classes in these packages (or their sub-packages) are included.
+     */
+    public static void main(String[] args) throws IOException {
+        int compressionLevel = Performer.getMethodMapCompressionLevel();
+        List<String> packagePrefixes = new ArrayList<>();
+        int i = 0;
+        while (i + 1 < args.length && args[i].startsWith("-")) {
+            if (args[i].equals("-compression")) {
+                compressionLevel = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-package")) {
+                packagePrefixes.add(args[i + 1]);
+            } else {
+                break;
+            }
+            i += 2;
+        }
+        if (args.length - i < 2 || args[i].startsWith("-")) {
+            System.err.println("Usage: MethodMapGenerator [-compression level] " +
+                    "[-package packagePrefix]... outputFilePath classesDirectory...");
+            System.exit(1);
+        }
+        generate(args[i], Arrays.asList(args).subList(i + 1, args.length),
+                packagePrefixes, compressionLevel);
+    }
+
+    /**
+     * Generates a method map for the classes in the {@code classesDirectories}
+     * (restricted to the packages starting with one of the
+     * {@code packagePrefixes}, if not empty) and writes it to
+     * {@code outputFilePath}, using the current
+     * {@link Performer#getMethodMapCompressionLevel()}.
+     */
+    public static void generate(
+            String outputFilePath,
+            List<String> classesDirectories,
+            List<String> packagePrefixes) throws IOException {
+        generate(outputFilePath, classesDirectories, packagePrefixes,
+                Performer.getMethodMapCompressionLevel());
+    }
+
+    static void generate(
+            String outputFilePath,
+            List<String> classesDirectories,
+            List<String> packagePrefixes,
+            int compressionLevel) throws IOException {
+        List<Path> directories = new ArrayList<>(classesDirectories.size());
+        for (String directory : classesDirectories) {
+            directories.add(Paths.get(directory));
+        }
+        MethodMapGenerator generator = new MethodMapGenerator(directories);
+        List<MethodMapBlock> blocks = generator.generateBlocks(packagePrefixes);
+
+        Path outputPath = Paths.get(outputFilePath + ".methods");
+        if (outputPath.getParent() != null) {
+            Files.createDirectories(outputPath.getParent());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(outputPath)))) {
+            MethodMapFile.write(out, blocks, compressionLevel);
+        }
+    }
+
+    private List<MethodMapBlock> generateBlocks(List<String> packagePrefixes) throws IOException {
+        List<MethodMapBlock> result = new ArrayList<>();
+        for (String className : classNamesInDirectories()) {
+            if (!isInPackages(className, packagePrefixes)) {
+                continue;
+            }
+            ClassFileInfo classFile = classFile(className);
+            // only instances of concrete classes can be receivers
+            if (classFile == null || classFile.isInterface() || classFile.isAbstract()) {
+                continue;
+            }
+            MethodMapBlock block = toBlock(classFile);
+            if (block != null) {
+                result.add(block);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the block for the {@code classFile}, or {@code null} when some
+     * super type of the class is not available.
+     */
+    private MethodMapBlock toBlock(ClassFileInfo classFile) throws IOException {
+        List<ClassFileInfo.MethodInfo> methods = publicMethods(classFile.getName());
+        if (methods == null) {
+            return null;
+        }
+
+        // The original getMethod returns the method matching the selector
+        // (ignoring bridge methods). When several (overloaded) methods match
+        // the method is selected by the arguments of each call, so such a
+        // selector gets no entry.
+        Map<String, List<ClassFileInfo.MethodInfo>> selectorToMethods = new LinkedHashMap<>();
+        long[] signatureHashes = new long[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            ClassFileInfo.MethodInfo method = methods.get(i);
+            signatureHashes[i] = method.signatureHash();
+            if (method.isBridge()) {
+                continue;
+            }
+            for (String selector : Performer.selectors(
+                    method.getName(), method.getParameterTypeNames().length)) {
+                selectorToMethods.computeIfAbsent(selector, s -> new ArrayList<>()).add(method);
+            }
+        }
+
+        List<MethodMapEntry> entries = new ArrayList<>(selectorToMethods.size());
+        for (Map.Entry<String, List<ClassFileInfo.MethodInfo>> entry : selectorToMethods.entrySet()) {
+            if (entry.getValue().size() != 1) {
+                continue;
+            }
+            ClassFileInfo.MethodInfo method = entry.getValue().get(0);
+            entries.add(MethodMapEntry.newMethodEntry(
+                    null, entry.getKey(), method.getName(), method.getParameterTypeNames()));
+        }
+        return new MethodMapBlock(classFile.getName(), ClassFingerprint.combine(signatureHashes), entries);
+    }
+
+    /**
+     * Returns the public methods of the class named {@code className}, as
+     * {@link Class#getMethods()} would return them (but in a deterministic
+     * order), or {@code null} when the class or any of its super types is
+     * not available.
+     * <p>
+     * Like {@link Class#getMethods()} this includes the public methods
+     * declared in the class, the ones of the superclass and the non-static
+     * ones of the interfaces, without the methods overridden by a more
+     * specific type.
+     */
+    private List<ClassFileInfo.MethodInfo> publicMethods(String className) throws IOException {
+        if (publicMethodsCache.containsKey(className)) {
+            return publicMethodsCache.get(className);
+        }
+        List<ClassFileInfo.MethodInfo> result = null;
+        ClassFileInfo classFile = classFile(className);
+        if (classFile != null) {
+            result = collectPublicMethods(classFile);
+        }
+        publicMethodsCache.put(className, result);
+        return result;
+    }
+
+    private List<ClassFileInfo.MethodInfo> collectPublicMethods(ClassFileInfo classFile) throws IOException {
+        // (name, parameter types) -> methods
+        Map<String, List<ClassFileInfo.MethodInfo>> signatureToMethods = new LinkedHashMap<>();
+        for (ClassFileInfo.MethodInfo method : classFile.getPublicMethods()) {
+            merge(signatureToMethods, method);
+        }
+        if (classFile.getSuperclassName() != null) {
+            List<ClassFileInfo.MethodInfo> methods = publicMethods(classFile.getSuperclassName());
+            if (methods == null) {
+                return null;
+            }
+            for (ClassFileInfo.MethodInfo method : methods) {
+                merge(signatureToMethods, method);
+            }
+        }
+        for (String interfaceName : classFile.getInterfaceNames()) {
+            List<ClassFileInfo.MethodInfo> methods = publicMethods(interfaceName);
+            if (methods == null) {
+                return null;
+            }
+            for (ClassFileInfo.MethodInfo method : methods) {
+                if (!method.isStatic()) {
+                    merge(signatureToMethods, method);
+                }
+            }
+        }
+
+        List<ClassFileInfo.MethodInfo> result = new ArrayList<>();
+        for (List<ClassFileInfo.MethodInfo> methods : signatureToMethods.values()) {
+            result.addAll(methods);
+        }
+        return result;
+    }
+
+    /**
+     * Merges the {@code method} into the methods with the same signature,
+     * following the rules of {@link Class#getMethods()}: of two methods
+     * with the same return type the one declared in the more specific type
+     * wins, with methods declared in classes winning over methods declared
+     * in interfaces.
+     */
+    private void merge(
+            Map<String, List<ClassFileInfo.MethodInfo>> signatureToMethods,
+            ClassFileInfo.MethodInfo method) throws IOException {
+        List<ClassFileInfo.MethodInfo> methods = signatureToMethods.computeIfAbsent(
+                method.getName() + Arrays.toString(method.getParameterTypeNames()),
+                s -> new ArrayList<>());
+        ClassFileInfo declaringClass = method.getDeclaringClass();
+        for (int i = 0; i < methods.size(); i++) {
+            ClassFileInfo.MethodInfo existing = methods.get(i);
+            if (!existing.getReturnTypeName().equals(method.getReturnTypeName())) {
+                continue;
+            }
+            ClassFileInfo existingDeclaringClass = existing.getDeclaringClass();
+            boolean removeExisting;
+            if (declaringClass.isInterface() == existingDeclaringClass.isInterface()) {
+                if (isAssignableFrom(declaringClass, existingDeclaringClass)) {
+                    // the existing method is the same or overrides the new one
+                    return;
+                }
+                removeExisting = isAssignableFrom(existingDeclaringClass, declaringClass);
+            } else if (declaringClass.isInterface()) {
+                return;
+            } else {
+                removeExisting = true;
+            }
+            if (removeExisting) {
+                methods.remove(i);
+                i--;
+            }
+        }
+        methods.add(method);
+    }
+
+    private boolean isAssignableFrom(ClassFileInfo type, ClassFileInfo subtype) throws IOException {
+        return superTypes(subtype.getName()).contains(type.getName());
+    }
+
+    /**
+     * Returns the names of the type {@code className} and all its super
+     * types.
+     */
+    private Set<String> superTypes(String className) throws IOException {
+        Set<String> result = superTypesCache.get(className);
+        if (result == null) {
+            result = new HashSet<>();
+            result.add(className);
+            ClassFileInfo classFile = classFile(className);
+            if (classFile != null) {
+                if (classFile.getSuperclassName() != null) {
+                    result.addAll(superTypes(classFile.getSuperclassName()));
+                }
+                for (String interfaceName : classFile.getInterfaceNames()) {
+                    result.addAll(superTypes(interfaceName));
+                }
+            }
+            superTypesCache.put(className, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the parsed class file of the class named {@code className},
+     * or {@code null} when no class file is found.
+     */
+    private ClassFileInfo classFile(String className) throws IOException {
+        if (classFiles.containsKey(className)) {
+            return classFiles.get(className);
+        }
+        String relativePath = className.replace('.', '/') + ".class";
+        ClassFileInfo result = null;
+        for (Path directory : classesDirectories) {
+            Path path = directory.resolve(relativePath);
+            if (Files.isRegularFile(path)) {
+                try (InputStream in = Files.newInputStream(path)) {
+                    result = ClassFileInfo.read(in);
+                }
+                break;
+            }
+        }
+        if (result == null) {
+            // Reading the class file as a resource does not load the class
+            try (InputStream in = ClassNames.defaultClassLoader().getResourceAsStream(relativePath)) {
+                if (in != null) {
+                    result = ClassFileInfo.read(in);
+                }
+            }
+        }
+        classFiles.put(className, result);
+        return result;
+    }
+
+    private List<String> classNamesInDirectories() throws IOException {
+        List<String> result = new ArrayList<>();
+        for (Path directory : classesDirectories) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                result.addAll(paths
+                        .filter(p -> p.getFileName().toString().endsWith(".class"))
+                        .map(p -> className(directory.relativize(p)))
+                        .filter(n -> !n.endsWith("package-info") && !n.endsWith("module-info"))
+                        .collect(Collectors.toList()));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String className(Path relativeClassFilePath) {
+        String path = relativeClassFilePath.toString().replace('\\', '/');
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+
+    private static boolean isInPackages(String className, List<String> packagePrefixes) {
+        if (packagePrefixes.isEmpty()) {
+            return true;
+        }
+        String packageName = className.lastIndexOf('.') < 0
+                ? "" : className.substring(0, className.lastIndexOf('.'));
+        for (String prefix : packagePrefixes) {
+            if (packageName.equals(prefix) || packageName.startsWith(prefix + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,230 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges several method maps (in the {@link MethodMapFormat#BLOCKS} format),
+ * e.g. saved by different runs or on different nodes, into one method map
+ * containing the union of all entries.
+ * <p>
+ * The merge works on the persisted data only, i.e. the classes referred to in
+ * the method maps need not be available.
+ * <p>
+ * Entries contained in more of the method maps are ranked higher, i.e. are
+ * stored before the other entries. Entries contained in the same number of
+ * method maps are ranked by their total hit count (see
+ * {@link Performer#setUsageProfilingEnabled(boolean)}). Classes are ordered
+ * by the rank of their highest ranked entry.
+ * <p>
+ * Conflicts are resolved deterministically:
+ * <ul>
+ *     <li>when the method maps contain blocks for different versions of a
+ *     class (i.e. with different fingerprints) the version found in most
+ *     method maps is used, the other versions are ignored.</li>
+ *     <li>when the method maps map a (class, selector) to different methods
+ *     the method found in most method maps is used.</li>
+ * </ul>
+ * On a tie the method map listed first wins.
+ * <p>
+ * An entry is considered unused for as many consecutive runs as in the
+ * method map where it was used most recently (see
+ * {@link Performer#setPruneAfterUnusedRuns(int)}).
+ */
+public final class MethodMapMerger {
+    private MethodMapMerger() {
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     * MethodMapMerger [-compression level] outputFilePath inputFilePath...
+     * </pre>
+     * The file paths are given without the ".methods" suffix, as for
+     * {@link Performer#saveMethods(String)}.
+     */
+    public static void main(String[] args) throws IOException {
+        int compressionLevel = Performer.getMethodMapCompressionLevel();
+        int i = 0;
+        if (args.length > 1 && args[0].equals("-compression")) {
+            compressionLevel = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length - i < 2) {
+            System.err.println(
+                    "Usage: MethodMapMerger [-compression level] outputFilePath inputFilePath...");
+            System.exit(1);
+        }
+        merge(args[i], Arrays.asList(args).subList(i + 1, args.length), compressionLevel);
+    }
+
+    /**
+     * Merges the method maps at {@code inputFilePaths} into a method map
+     * written to {@code outputFilePath}, using the current
+     * {@link Performer#getMethodMapCompressionLevel()}.
+     */
+    public static void merge(String outputFilePath, List<String> inputFilePaths) throws IOException {
+        merge(outputFilePath, inputFilePaths, Performer.getMethodMapCompressionLevel());
+    }
+
+    static void merge(
+            String outputFilePath, List<String> inputFilePaths, int compressionLevel) throws IOException {
+        Map<String, Map<Long, ClassVersion>> classToVersions = new TreeMap<>();
+        for (int inputIndex = 0; inputIndex < inputFilePaths.size(); inputIndex++) {
+            for (MethodMapBlock block : readBlocks(inputFilePaths.get(inputIndex))) {
+                classToVersions.computeIfAbsent(block.getClassName(), c -> new LinkedHashMap<>())
+                        .computeIfAbsent(block.getFingerprint(),
+                                f -> new ClassVersion(block.getClassName(), f))
+                        .add(block, inputIndex);
+            }
+        }
+
+        List<RankedBlock> rankedBlocks = new ArrayList<>();
+        for (Map<Long, ClassVersion> versions : classToVersions.values()) {
+            ClassVersion version = versions.values().stream()
+                    .min(Comparator.<ClassVersion>comparingInt(v -> -v.occurrences.count)
+                            .thenComparingInt(v -> v.occurrences.firstInputIndex))
+                    .orElseThrow(IllegalStateException::new);
+            rankedBlocks.add(version.toRankedBlock());
+        }
+        rankedBlocks.sort(Comparator.comparing((RankedBlock b) -> b.topCandidate,
+                        Comparator.nullsLast(Candidate.HIGHER_RANK_FIRST))
+                .thenComparing(b -> b.block.getClassName()));
+
+        List<MethodMapBlock> blocks = new ArrayList<>(rankedBlocks.size());
+        for (RankedBlock rankedBlock : rankedBlocks) {
+            blocks.add(rankedBlock.block);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(outputFilePath + ".methods"))))) {
+            MethodMapFile.write(out, blocks, compressionLevel);
+        }
+    }
+
+    private static List<MethodMapBlock> readBlocks(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(Paths.get(filePath + ".methods"))))) {
+            return MethodMapFile.read(in);
+        }
+    }
+
+    /**
+     * Counts in how many method maps something occurs.
+     */
+    private static final class Occurrences {
+        int count;
+        int firstInputIndex = Integer.MAX_VALUE;
+
+        void add(int inputIndex) {
+            count++;
+            firstInputIndex = Math.min(firstInputIndex, inputIndex);
+        }
+    }
+
+    private static final class Candidate {
+        static final Comparator<Candidate> HIGHER_RANK_FIRST =
+                Comparator.<Candidate>comparingInt(c -> -c.occurrences.count)
+                        .thenComparingLong(c -> -c.hitCount);
+
+        final MethodMapEntry entry;
+        final Occurrences occurrences = new Occurrences();
+        long hitCount;
+        int firstUse;
+        int unusedRuns = Integer.MAX_VALUE;
+
+        Candidate(MethodMapEntry entry) {
+            this.entry = entry;
+        }
+
+        void add(MethodMapEntry entry, int inputIndex) {
+            occurrences.add(inputIndex);
+            hitCount += entry.getHitCount();
+            if (entry.getFirstUse() > 0 && (firstUse == 0 || entry.getFirstUse() < firstUse)) {
+                firstUse = entry.getFirstUse();
+            }
+            unusedRuns = Math.min(unusedRuns, entry.getUnusedRuns());
+        }
+
+        MethodMapEntry mergedEntry() {
+            return entry.withUsage(firstUse, hitCount, unusedRuns);
+        }
+    }
+
+    private static final class RankedBlock {
+        final MethodMapBlock block;
+        /**
+         * The highest ranked entry of the block, or {@code null} for an empty
+         * block.
+         */
+        final Candidate topCandidate;
+
+        RankedBlock(MethodMapBlock block, Candidate topCandidate) {
+            this.block = block;
+            this.topCandidate = topCandidate;
+        }
+    }
+
+    /**
+     * All entries for one version (i.e. fingerprint) of a class.
+     */
+    private static final class ClassVersion {
+        final String className;
+        final long fingerprint;
+        final Occurrences occurrences = new Occurrences();
+        /**
+         * selector -> (target -> Candidate)
+         */
+        final Map<String, Map<String, Candidate>> selectorToCandidates = new TreeMap<>();
+
+        ClassVersion(String className, long fingerprint) {
+            this.className = className;
+            this.fingerprint = fingerprint;
+        }
+
+        void add(MethodMapBlock block, int inputIndex) {
+            occurrences.add(inputIndex);
+            for (MethodMapEntry entry : block.getEntries()) {
+                selectorToCandidates.computeIfAbsent(entry.getSelector(), s -> new LinkedHashMap<>())
+                        .computeIfAbsent(target(entry), t -> new Candidate(entry))
+                        .add(entry, inputIndex);
+            }
+        }
+
+        RankedBlock toRankedBlock() {
+            List<Candidate> chosen = new ArrayList<>(selectorToCandidates.size());
+            for (Map<String, Candidate> candidates : selectorToCandidates.values()) {
+                chosen.add(candidates.values().stream()
+                        .min(Comparator.<Candidate>comparingInt(c -> -c.occurrences.count)
+                                .thenComparingInt(c -> c.occurrences.firstInputIndex))
+                        .orElseThrow(IllegalStateException::new));
+            }
+            // higher ranked entries first (the selector order is kept on a tie)
+            chosen.sort(Candidate.HIGHER_RANK_FIRST);
+
+            List<MethodMapEntry> entries = new ArrayList<>(chosen.size());
+            for (Candidate candidate : chosen) {
+                entries.add(candidate.mergedEntry());
+            }
+            return new RankedBlock(new MethodMapBlock(className, fingerprint, entries),
+                    chosen.isEmpty() ? null : chosen.get(0));
+        }
+
+        private static String target(MethodMapEntry entry) {
+            return entry.isNoSuchMethod()
+                    ? ""
+                    : entry.getMethodName() + Arrays.toString(entry.getParameterTypeNames());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.abego.lab.perform.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves lazily loaded entries of a method map in the background, in the
+ * order they were used the first time in the run that saved the method map.
+ * <p>
+ * The read-ahead only replaces entries still unresolved in the method map,
+ * so it does not interfere with lookups resolving entries concurrently.
+ */
+final class MethodMapReadAhead implements Runnable {
+    private static final class Item {
+        final Class<?> type;
+        final MethodMapEntry entry;
+
+        Item(Class<?> type, MethodMapEntry entry) {
+            this.type = type;
+            this.entry = entry;
+        }
+
+        /**
+         * Entries with unknown first use come last.
+         */
+        int firstUseOrder() {
+            int firstUse = entry.getFirstUse();
+            return firstUse > 0 ? firstUse : Integer.MAX_VALUE;
+        }
+    }
+
+    private final Map<Class<?>, Map<String, Object>> methodMap;
+    private final List<Item> items = new ArrayList<>();
+    private volatile boolean stopped;
+
+    MethodMapReadAhead(Map<Class<?>, Map<String, Object>> methodMap) {
+        this.methodMap = methodMap;
+    }
+
+    Map<Class<?>, Map<String, Object>> getMethodMap() {
+        return methodMap;
+    }
+
+    void add(Class<?> type, MethodMapEntry entry) {
+        items.add(new Item(type, entry));
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        items.sort(Comparator.comparingInt(Item::firstUseOrder));
+        for (Item item : items) {
+            if (stopped) {
+                return;
+            }
+            resolve(item.type, item.entry);
+        }
+    }
+
+    private void resolve(Class<?> type, MethodMapEntry entry) {
+        Map<String, Object> selectorToMethodMap = methodMap.get(type);
+        String selector = entry.getSelector();
+        if (selectorToMethodMap == null
+                || selectorToMethodMap.get(selector) != entry
+                || !entry.isValidFor(type)) {
+            // already resolved, or outdated (outdated entries are dropped
+            // when they are resolved "the normal way")
+            return;
+        }
+        try {
+            Object value = entry.isNoSuchMethod()
+                    ? entry.newNoSuchMethodException()
+                    : entry.getMethodForClass(type);
+            selectorToMethodMap.replace(selector, entry, value);
+        } catch (NoSuchMethodException e) {
+            // leave the entry to the "normal" resolution
+        }
+    }
+}
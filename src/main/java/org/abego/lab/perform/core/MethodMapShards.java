@@ -0,0 +1,108 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Support for method maps stored as "shards", i.e. one method map file per
+ * package, plus a manifest listing the packages with a shard.
+ * <p>
+ * The manifest is a text file named {@value #MANIFEST_FILE_NAME} with one line
+ * "packageName\tshardName" per shard. The shard itself is a method map file
+ * (in the usual {@link MethodMapFormat}) with the file path
+ * "directory/shardName".
+ */
+final class MethodMapShards {
+    static final String MANIFEST_FILE_NAME = "manifest.txt";
+    private static final String DEFAULT_PACKAGE_SHARD_NAME = "default-package";
+
+    private MethodMapShards() {
+    }
+
+    static String packageName(Class<?> type) {
+        String className = type.getName();
+        int i = className.lastIndexOf('.');
+        return i < 0 ? "" : className.substring(0, i);
+    }
+
+    static String shardName(String packageName) {
+        return packageName.isEmpty() ? DEFAULT_PACKAGE_SHARD_NAME : packageName;
+    }
+
+    static String shardFilePath(String directoryPath, String shardName) {
+        return Paths.get(directoryPath, shardName).toString();
+    }
+
+    /**
+     * Splits the {@code methodMap} into one method map per package.
+     */
+    static Map<String, Map<Class<?>, Map<String, Object>>> methodMapsByPackage(
+            Map<Class<?>, Map<String, Object>> methodMap) {
+        Map<String, Map<Class<?>, Map<String, Object>>> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+            result.computeIfAbsent(packageName(entry.getKey()), p -> new IdentityHashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the (packageName -> shard file path) map of the shards listed
+     * in the manifest in {@code directoryPath}, or an empty map when the
+     * directory has no manifest (yet).
+     */
+    static Map<String, String> readManifest(String directoryPath) throws IOException {
+        Map<String, String> result = new TreeMap<>();
+        Path manifestPath = Paths.get(directoryPath, MANIFEST_FILE_NAME);
+        if (!Files.exists(manifestPath)) {
+            return result;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int i = line.indexOf('\t');
+                if (i < 0) {
+                    throw new IOException("Invalid line in shard manifest: " + line);
+                }
+                result.put(line.substring(0, i),
+                        shardFilePath(directoryPath, line.substring(i + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the shards of the given {@code packageNames} to the manifest in
+     * {@code directoryPath}, keeping the shards already listed.
+     */
+    static void addToManifest(String directoryPath, Iterable<String> packageNames) throws IOException {
+        Map<String, String> shardNames = new TreeMap<>();
+        for (String packageName : readManifest(directoryPath).keySet()) {
+            shardNames.put(packageName, shardName(packageName));
+        }
+        for (String packageName : packageNames) {
+            shardNames.put(packageName, shardName(packageName));
+        }
+
+        Path manifestPath = Paths.get(directoryPath, MANIFEST_FILE_NAME);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : shardNames.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -3,13 +3,48 @@ package org.abego.lab.perform.core;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 interface MethodSerializer {
     void saveMethods(String filePath, Map<Class<?>, Map<String, Object>> methodMap) throws IOException;
 
+    /**
+     * Saves the methods, including the usage data of the
+     * {@code usageProfile} (when not {@code null}) if the format supports it.
+     */
+    default void saveMethods(
+            String filePath,
+            Map<Class<?>, Map<String, Object>> methodMap,
+            UsageProfile usageProfile) throws IOException {
+        saveMethods(filePath, methodMap);
+    }
+
     Map<Class<?>, Map<String, Object>> loadMethods(String filePath, boolean loadMethodsLazy) throws IOException, ClassNotFoundException, NoSuchMethodException;
 
+    /**
+     * Loads the methods, passing the usage data stored with the entries to
+     * the {@code usageProfile} (when not {@code null}) if the format
+     * supports it.
+     */
+    default Map<Class<?>, Map<String, Object>> loadMethods(
+            String filePath,
+            boolean loadMethodsLazy,
+            UsageProfile usageProfile) throws IOException, ClassNotFoundException, NoSuchMethodException {
+        return loadMethods(filePath, loadMethodsLazy);
+    }
+
+    /**
+     * Returns the Method for the lazily loaded {@code value} stored in the
+     * {@code methodMap} for {@code type} and {@code selector}, and replaces
+     * the value in the map by the Method.
+     * <p>
+     * Returns {@code null} when the value turned out to be outdated (e.g.
+     * because the class changed since the value was saved). In that case the
+     * outdated values are removed from the {@code methodMap}.
+     */
     Method resolveMethod(
             Class<?> type,
             String selector,
@@ -20,4 +55,25 @@ interface MethodSerializer {
             Writer writer, Map<Class<?>, Map<String, Object>> methodMap) throws IOException {
        throw new PerformException("dumpMethods not supported");
     }
+
+    /**
+     * Writes a line "className\tselector" for every entry of the
+     * {@code methodMap}, sorted by class name and selector.
+     */
+    static void dumpSelectors(
+            Writer writer, Map<Class<?>, Map<String, Object>> methodMap) throws IOException {
+        List<Class<?>> sortedClasses = methodMap.keySet().stream()
+                .sorted(Comparator.comparing(Class::getCanonicalName))
+                .collect(Collectors.toList());
+        for (Class<?> type : sortedClasses) {
+            String className = type.getCanonicalName();
+            List<String> methodNames = methodMap.get(type).keySet().stream().sorted().collect(Collectors.toList());
+            for (String methodName : methodNames) {
+                writer.append(className);
+                writer.append('\t');
+                writer.append(methodName);
+                writer.append('\n');
+            }
+        }
+    }
 }
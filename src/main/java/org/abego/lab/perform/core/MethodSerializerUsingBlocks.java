@@ -0,0 +1,482 @@
+package org.abego.lab.perform.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link MethodSerializer} using the "blocks" file format (see
+ * {@link MethodMapFile}), storing the entries of every class in a separate,
+ * optionally compressed block.
+ */
+final class MethodSerializerUsingBlocks implements MethodSerializer {
+    /**
+     * Orders entries by hit count (descending), then by first use.
+     */
+    private static final Comparator<MethodMapEntry> HOT_FIRST =
+            Comparator.comparingLong((MethodMapEntry e) -> -e.getHitCount())
+                    .thenComparingInt(e -> e.getFirstUse() > 0 ? e.getFirstUse() : Integer.MAX_VALUE);
+    /**
+     * Orders blocks by the first use of their class.
+     */
+    private static final Comparator<MethodMapBlock> FIRST_USED_FIRST =
+            Comparator.comparingInt(MethodSerializerUsingBlocks::firstUse);
+
+    private int compressionLevel = Deflater.NO_COMPRESSION;
+    private int pruneAfterUnusedRuns;
+    private long pruneMinHitCount = 1;
+    private int classPreloadThreadCount;
+    private boolean classPreloadInitialization;
+
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the level used to compress the blocks when saving methods, in the
+     * range {@link Deflater#NO_COMPRESSION} (no compression) to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    void setCompressionLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    int getPruneAfterUnusedRuns() {
+        return pruneAfterUnusedRuns;
+    }
+
+    /**
+     * Sets after how many consecutive unused runs an entry is dropped when
+     * saving methods with a usage profile, or 0 to keep all entries.
+     */
+    void setPruneAfterUnusedRuns(int runs) {
+        if (runs < 0) {
+            throw new IllegalArgumentException("runs must not be negative");
+        }
+        this.pruneAfterUnusedRuns = runs;
+    }
+
+    long getPruneMinHitCount() {
+        return pruneMinHitCount;
+    }
+
+    /**
+     * Sets how often an entry must be used in a run to count as "used" in
+     * that run.
+     */
+    void setPruneMinHitCount(long hitCount) {
+        if (hitCount < 1) {
+            throw new IllegalArgumentException("hitCount must be at least 1");
+        }
+        this.pruneMinHitCount = hitCount;
+    }
+
+    int getClassPreloadThreadCount() {
+        return classPreloadThreadCount;
+    }
+
+    /**
+     * Sets the number of threads loading the classes of a method map (and
+     * resolving their entries) in parallel, or 0 to load them in the
+     * calling thread.
+     */
+    void setClassPreloadThreadCount(int threadCount) {
+        if (threadCount < 0) {
+            throw new IllegalArgumentException("threadCount must not be negative");
+        }
+        this.classPreloadThreadCount = threadCount;
+    }
+
+    boolean isClassPreloadInitialization() {
+        return classPreloadInitialization;
+    }
+
+    /**
+     * Defines if the classes loaded in parallel are also initialized, i.e.
+     * if their static initializers run in the loading threads.
+     */
+    void setClassPreloadInitialization(boolean value) {
+        this.classPreloadInitialization = value;
+    }
+
+    @Override
+    public void saveMethods(String filePath, Map<Class<?>, Map<String, Object>> methodMap) throws IOException {
+        saveMethods(filePath, methodMap, null);
+    }
+
+    /**
+     * Saves the methods, including the usage data of the
+     * {@code usageProfile} (when not {@code null}).
+     * <p>
+     * The most used ("hot") entries are written first, both within a block
+     * and across blocks.
+     * <p>
+     * With a usage profile entries unused for
+     * {@link #setPruneAfterUnusedRuns(int) pruneAfterUnusedRuns} consecutive
+     * runs are not written.
+     */
+    @Override
+    public void saveMethods(
+            String filePath,
+            Map<Class<?>, Map<String, Object>> methodMap,
+            UsageProfile usageProfile) throws IOException {
+        List<MethodMapBlock> blocks = new ArrayList<>(methodMap.size());
+        for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+            MethodMapBlock block = toBlock(entry.getKey(), entry.getValue(), usageProfile);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        blocks.sort(Comparator.comparing(
+                (MethodMapBlock b) -> b.getEntries().isEmpty() ? null : b.getEntries().get(0),
+                Comparator.nullsLast(HOT_FIRST)));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(filePathForSerialization(filePath))))) {
+            MethodMapFile.write(out, blocks, compressionLevel);
+        }
+    }
+
+    @Override
+    public Map<Class<?>, Map<String, Object>> loadMethods(String filePath, boolean loadMethodsLazy) throws IOException {
+        return loadMethods(filePath, loadMethodsLazy, null);
+    }
+
+    /**
+     * Loads the methods, passing the number of unused runs stored with the
+     * entries to the {@code usageProfile} (when not {@code null}).
+     */
+    @Override
+    public Map<Class<?>, Map<String, Object>> loadMethods(
+            String filePath, boolean loadMethodsLazy, UsageProfile usageProfile) throws IOException {
+        return toMethodMap(readBlocks(filePath), loadMethodsLazy, usageProfile);
+    }
+
+    /**
+     * Loads the methods from the {@code inputStream} (e.g. a resource),
+     * reading the complete stream but not closing it.
+     */
+    Map<Class<?>, Map<String, Object>> loadMethods(InputStream inputStream, boolean loadMethodsLazy) throws IOException {
+        return toMethodMap(MethodMapFile.read(
+                new DataInputStream(new BufferedInputStream(inputStream))), loadMethodsLazy, null);
+    }
+
+    private Map<Class<?>, Map<String, Object>> toMethodMap(
+            List<MethodMapBlock> blocks, boolean loadMethodsLazy, UsageProfile usageProfile)
+            throws IOException {
+        Map<Class<?>, Map<String, Object>> result = new ConcurrentHashMap<>();
+        int eagerEntryCount = loadMethodsLazy ? 0 : Integer.MAX_VALUE;
+        if (classPreloadThreadCount > 0) {
+            addBlocksInParallel(result, blocks, eagerEntryCount, usageProfile);
+        } else {
+            for (MethodMapBlock block : blocks) {
+                addBlock(result, block, eagerEntryCount, null, usageProfile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the {@code blocks} to the {@code methodMap} like
+     * {@link #addBlock(Map, MethodMapBlock, int, MethodMapReadAhead, UsageProfile)},
+     * but using {@link #classPreloadThreadCount} threads, i.e. loading (and
+     * linking) the classes of the blocks in parallel.
+     * <p>
+     * The blocks are processed in the order their classes were used the
+     * first time in the profiled run (if known), to load the classes needed
+     * first as early as possible.
+     */
+    private void addBlocksInParallel(
+            Map<Class<?>, Map<String, Object>> methodMap,
+            List<MethodMapBlock> blocks,
+            int eagerEntryCount,
+            UsageProfile usageProfile) throws IOException {
+
+        boolean initialize = classPreloadInitialization;
+        // the loading threads must find the classes in the same way as the
+        // calling thread
+        ClassLoader classLoader = ClassNames.defaultClassLoader();
+        ExecutorService executor = Executors.newFixedThreadPool(classPreloadThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "perform-class-preload");
+            thread.setDaemon(true);
+            thread.setContextClassLoader(classLoader);
+            return thread;
+        });
+        try {
+            // decompress (and decode) the blocks in parallel, too. Their
+            // entries are needed to order the blocks by first use.
+            List<Future<?>> decodings = new ArrayList<>(blocks.size());
+            for (MethodMapBlock block : blocks) {
+                decodings.add(executor.submit(block::getEntries));
+            }
+            for (Future<?> decoding : decodings) {
+                decoding.get();
+            }
+
+            List<MethodMapBlock> sortedBlocks = new ArrayList<>(blocks);
+            sortedBlocks.sort(FIRST_USED_FIRST);
+            List<Future<?>> futures = new ArrayList<>(sortedBlocks.size());
+            for (MethodMapBlock block : sortedBlocks) {
+                futures.add(executor.submit(() -> {
+                    if (initialize) {
+                        initializeClass(block.getClassName(), classLoader);
+                    }
+                    addBlock(methodMap, block, eagerEntryCount, null, usageProfile);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading methods");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void initializeClass(String className, ClassLoader classLoader) {
+        try {
+            Class.forName(className, true, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            // the block is dropped (class not found), or the error is
+            // reported again when the application uses the class
+            // (initialization failed)
+        }
+    }
+
+    /**
+     * Returns the first use of the first used entry of the {@code block}, or
+     * {@link Integer#MAX_VALUE} when unknown.
+     */
+    private static int firstUse(MethodMapBlock block) {
+        int result = Integer.MAX_VALUE;
+        for (MethodMapEntry entry : block.getEntries()) {
+            if (entry.getFirstUse() > 0) {
+                result = Math.min(result, entry.getFirstUse());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the methods, resolving the first {@code eagerEntryBudget}
+     * entries of the file (i.e. the "hot" ones) eagerly and all others
+     * lazily.
+     * <p>
+     * The returned {@link MethodMapReadAhead} contains the loaded method map
+     * and can be used to resolve the lazily loaded entries in the background.
+     */
+    MethodMapReadAhead loadMethodsHotFirst(
+            String filePath, int eagerEntryBudget, UsageProfile usageProfile) throws IOException {
+        List<MethodMapBlock> blocks = readBlocks(filePath);
+
+        MethodMapReadAhead readAhead = new MethodMapReadAhead(new ConcurrentHashMap<>());
+        int remainingBudget = eagerEntryBudget;
+        for (MethodMapBlock block : blocks) {
+            int eagerEntryCount = Math.min(remainingBudget, block.getEntries().size());
+            remainingBudget -= eagerEntryCount;
+            addBlock(readAhead.getMethodMap(), block, eagerEntryCount, readAhead, usageProfile);
+        }
+        return readAhead;
+    }
+
+    @Override
+    public Method resolveMethod(
+            Class<?> type,
+            String selector,
+            Object value,
+            Map<Class<?>, Map<String, Object>> methodMap) throws NoSuchMethodException {
+
+        if (value instanceof MethodMapEntry) {
+            MethodMapEntry entry = (MethodMapEntry) value;
+            Map<String, Object> selectorToMethodMap = methodMap.get(type);
+            if (!entry.isValidFor(type)) {
+                // The class changed since the entry was written. Drop all
+                // entries of the outdated block, they will be re-resolved
+                // when needed.
+                selectorToMethodMap.values().removeIf(v -> v instanceof MethodMapEntry
+                        && ((MethodMapEntry) v).getBlock() == entry.getBlock());
+                return null;
+            }
+            if (entry.isNoSuchMethod()) {
+                NoSuchMethodException e = entry.newNoSuchMethodException();
+                selectorToMethodMap.put(selector, e);
+                throw e;
+            }
+            // replace the entry stored for type and selector with the Method
+            // it refers to, so the next lookup directly finds the Method.
+            Method method = entry.getMethodForClass(type);
+            selectorToMethodMap.put(selector, method);
+            return method;
+        }
+        throw new IllegalStateException(
+                String.format("Unexpected value memoized for %s and selector '%s': %s",
+                        type, selector, value));
+    }
+
+    @Override
+    public void dumpMethods(Writer writer, Map<Class<?>, Map<String, Object>> methodMap) throws IOException {
+        MethodSerializer.dumpSelectors(writer, methodMap);
+    }
+
+    /**
+     * Adds the entries of the {@code block} to the {@code methodMap},
+     * resolving the first {@code eagerEntryCount} entries immediately and
+     * adding the other ones lazily (and to the {@code readAhead}, if not
+     * {@code null}). The unused runs of the entries are passed to the
+     * {@code usageProfile}, if not {@code null}.
+     * <p>
+     * Blocks of classes that no longer exist or changed since the block was
+     * written are dropped (for a block added lazily a changed class is only
+     * detected when an entry of the class is resolved).
+     */
+    private static void addBlock(
+            Map<Class<?>, Map<String, Object>> methodMap,
+            MethodMapBlock block,
+            int eagerEntryCount,
+            MethodMapReadAhead readAhead,
+            UsageProfile usageProfile) {
+
+        Class<?> type;
+        try {
+            type = ClassNames.forName(block.getClassName());
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        if (eagerEntryCount > 0 && !block.isValidFor(type)) {
+            return;
+        }
+
+        Map<String, Object> selectorToMethodMap = new ConcurrentHashMap<>();
+        // the eager entries are resolved with one index (i.e. with one
+        // getMethods call)
+        MethodIndex methodIndex = null;
+        List<MethodMapEntry> entries = block.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            MethodMapEntry entry = entries.get(i);
+            Object someKindOfMethod;
+            if (i >= eagerEntryCount) {
+                // the entry is converted into a "real" Method (or a
+                // NoSuchMethodException) when it is needed the first time
+                // (see resolveMethod)
+                someKindOfMethod = entry;
+                if (readAhead != null) {
+                    readAhead.add(type, entry);
+                }
+            } else if (entry.isNoSuchMethod()) {
+                someKindOfMethod = entry.newNoSuchMethodException();
+            } else {
+                if (methodIndex == null) {
+                    methodIndex = MethodIndex.of(type);
+                }
+                try {
+                    someKindOfMethod = entry.getMethod(methodIndex);
+                } catch (NoSuchMethodException e) {
+                    // the block does not match the class, in spite of the
+                    // matching fingerprint. Drop the block.
+                    return;
+                }
+            }
+            selectorToMethodMap.put(entry.getSelector(), someKindOfMethod);
+        }
+        if (usageProfile != null) {
+            for (MethodMapEntry entry : entries) {
+                usageProfile.recordPreviousUnusedRuns(type, entry.getSelector(), entry.getUnusedRuns());
+            }
+        }
+        methodMap.put(type, selectorToMethodMap);
+    }
+
+    /**
+     * Returns the block for the entries of {@code type}, or {@code null}
+     * when all entries were pruned (or are overload sets or extensions).
+     */
+    private MethodMapBlock toBlock(
+            Class<?> type, Map<String, Object> selectorToMethodMap, UsageProfile usageProfile) {
+        List<MethodMapEntry> entries = new ArrayList<>(selectorToMethodMap.size());
+        for (Map.Entry<String, Object> selectorToMethod : selectorToMethodMap.entrySet()) {
+            String selector = selectorToMethod.getKey();
+            Object value = selectorToMethod.getValue();
+            MethodMapEntry entry;
+            if (value instanceof Method) {
+                entry = MethodMapEntry.newMethodEntry(selector, (Method) value);
+            } else if (value instanceof MethodMapEntry) {
+                entry = (MethodMapEntry) value;
+                // entries not yet resolved may be outdated
+                if (!entry.isValidFor(type)) {
+                    continue;
+                }
+            } else if (value instanceof NoSuchMethodException || value instanceof DoesNotUnderstandEntry
+                    || value instanceof ForwardingEntry) {
+                entry = MethodMapEntry.newNoSuchMethodEntry(selector);
+            } else if (value instanceof OverloadSet || value instanceof ClassExtension) {
+                // recreated when the selector is looked up again
+                continue;
+            } else {
+                throw new IllegalStateException(
+                        String.format("Unexpected value memoized for %s and selector '%s': %s",
+                                type, selector, value));
+            }
+            if (usageProfile != null) {
+                int unusedRuns = usageProfile.getUnusedRuns(type, selector, pruneMinHitCount);
+                if (pruneAfterUnusedRuns > 0 && unusedRuns >= pruneAfterUnusedRuns) {
+                    continue;
+                }
+                UsageProfile.EntryUsage usage = usageProfile.getUsage(type, selector);
+                entry = usage != null
+                        ? entry.withUsage(usage.firstUse, usage.hitCount, unusedRuns)
+                        : entry.withUsage(0, 0, unusedRuns);
+            }
+            entries.add(entry);
+        }
+        if (entries.isEmpty() && !selectorToMethodMap.isEmpty()) {
+            return null;
+        }
+        entries.sort(HOT_FIRST);
+        return new MethodMapBlock(type.getName(), ClassFingerprint.of(type), entries);
+    }
+
+    private List<MethodMapBlock> readBlocks(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(filePathForSerialization(filePath))))) {
+            return MethodMapFile.read(in);
+        }
+    }
+
+    private Path filePathForSerialization(String filePath) {
+        return Paths.get(filePath + ".methods");
+    }
+}
@@ -12,12 +12,9 @@ import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class MethodSerializerUsingObjectStreams implements MethodSerializer {
     private final class MethodLocator {
@@ -78,19 +75,7 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
 
     @Override
     public void dumpMethods(Writer writer, Map<Class<?>, Map<String, Object>> methodMap) throws IOException {
-        List<Class<?>> sortedClasses = methodMap.keySet().stream()
-                .sorted(Comparator.comparing(Class::getCanonicalName))
-                .collect(Collectors.toList());
-        for (Class<?> type : sortedClasses) {
-            String className = type.getCanonicalName();
-            List<String> methodNames = methodMap.get(type).keySet().stream().sorted().collect(Collectors.toList());
-            for (String methodName : methodNames) {
-                writer.append(className);
-                writer.append('\t');
-                writer.append(methodName);
-                writer.append('\n');
-            }
-        }
+        MethodSerializer.dumpSelectors(writer, methodMap);
     }
 
     private static void writeMethodMap(
@@ -111,12 +96,13 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
             // ...  write the class
             objectOutputStream.writeObject(entry.getKey());
 
-            Map<String, Object> selectorToMethodMap = entry.getValue();
+            Map<String, Object> selectorToMethodMap =
+                    withoutTransientValues(entry.getKey(), entry.getValue());
             int selectorCount = selectorToMethodMap.size();
             // ...  write the number of selectors/methods for this class
             objectOutputStream.writeInt(selectorCount);
             // for each selector -> method entry ...
-            for (Map.Entry<String, Object> selectorToMethod : entry.getValue()
+            for (Map.Entry<String, Object> selectorToMethod : selectorToMethodMap
                     .entrySet()) {
                 // write the selector
                 objectOutputStream.writeObject(selectorToMethod.getKey());
@@ -144,6 +130,55 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
         }
     }
 
+    /**
+     * Returns the {@code selectorToMethodMap} with the {@link MethodMapEntry}
+     * values (i.e. entries shared by other processes, not yet resolved)
+     * resolved and the {@link DoesNotUnderstandEntry} and
+     * {@link ForwardingEntry} values replaced by their
+     * NoSuchMethodException. Outdated entries, {@link OverloadSet}s and
+     * {@link ClassExtension}s (recreated when needed) are dropped.
+     */
+    private static Map<String, Object> withoutTransientValues(
+            Class<?> type, Map<String, Object> selectorToMethodMap) {
+        if (selectorToMethodMap.values().stream()
+                .noneMatch(v -> v instanceof MethodMapEntry
+                        || v instanceof DoesNotUnderstandEntry || v instanceof ForwardingEntry
+                        || isTransient(v))) {
+            return selectorToMethodMap;
+        }
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, Object> selectorToMethod : selectorToMethodMap.entrySet()) {
+            Object value = selectorToMethod.getValue();
+            if (isTransient(value)) {
+                continue;
+            }
+            if (value instanceof DoesNotUnderstandEntry) {
+                value = ((DoesNotUnderstandEntry) value).getException();
+            } else if (value instanceof ForwardingEntry) {
+                value = ((ForwardingEntry) value).getException();
+            }
+            if (value instanceof MethodMapEntry) {
+                MethodMapEntry entry = (MethodMapEntry) value;
+                if (!entry.isValidFor(type)) {
+                    continue;
+                }
+                try {
+                    value = entry.isNoSuchMethod()
+                            ? entry.newNoSuchMethodException()
+                            : entry.getMethodForClass(type);
+                } catch (NoSuchMethodException e) {
+                    continue;
+                }
+            }
+            result.put(selectorToMethod.getKey(), value);
+        }
+        return result;
+    }
+
+    private static boolean isTransient(Object value) {
+        return value instanceof OverloadSet || value instanceof ClassExtension;
+    }
+
     private static void writeMethodLocatorInfo(ObjectOutputStream objectOutputStream, String methodName, Class<?>[] parameterTypes) throws IOException {
         objectOutputStream.writeObject(methodName);
         objectOutputStream.writeObject(parameterTypes);
@@ -153,7 +188,7 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
             ObjectInputStream in, boolean loadMethodsLazy)
             throws IOException, ClassNotFoundException, NoSuchMethodException {
 
-        Map<Class<?>, Map<String, Object>> result = new IdentityHashMap<>();
+        Map<Class<?>, Map<String, Object>> result = new ConcurrentHashMap<>();
 
         // read the number of classes
         int classCount = in.readInt();
@@ -161,8 +196,11 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
         for (int i = 0; i < classCount; i++) {
             // ... read the class (and create its "selector -> Method" map)
             Class<?> type = (Class<?>) in.readObject();
-            Map<String, Object> selectorToMethodMap = new HashMap<>();
+            Map<String, Object> selectorToMethodMap = new ConcurrentHashMap<>();
             result.put(type, selectorToMethodMap);
+            // when loading eagerly all methods of the class are resolved
+            // with one index (i.e. with one getMethods call)
+            MethodIndex methodIndex = null;
 
             // ...  read the number of selectors/methods for this class
             int selectorCount = in.readInt();
@@ -179,10 +217,15 @@ final class MethodSerializerUsingObjectStreams implements MethodSerializer {
                     // either store a MethodLocator in the map (to be converted
                     // into a "real" Method when the Method is needed the first
                     // time) or the "real" Method
-                    // TODO: check if using "getMethods" is more efficient
-                    Object someKindOfMethod = loadMethodsLazy
-                            ? new MethodLocator(methodName, parameterTypes)
-                            : type.getMethod(methodName, parameterTypes);
+                    Object someKindOfMethod;
+                    if (loadMethodsLazy) {
+                        someKindOfMethod = new MethodLocator(methodName, parameterTypes);
+                    } else {
+                        if (methodIndex == null) {
+                            methodIndex = MethodIndex.of(type);
+                        }
+                        someKindOfMethod = methodIndex.getMethod(methodName, parameterTypes);
+                    }
                     selectorToMethodMap.put(selector, someKindOfMethod);
                 } else {
                     selectorToMethodMap.put(selector, methodNameOrException);
@@ -0,0 +1,218 @@
+package org.abego.lab.perform.core;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The overloaded methods implementing a selector in a class, e.g.
+ * {@code append(int)}, {@code append(String)}, {@code append(Object)}.
+ * <p>
+ * The method to invoke is selected by the runtime classes of the arguments,
+ * following the rules of the Java compiler as if the runtime classes were
+ * the static types of the arguments: methods applicable without unboxing
+ * are preferred over the ones requiring unboxing (and widening) of
+ * arguments, and of the applicable methods the most specific one is
+ * selected. (Variable arity methods are treated like fixed arity methods.)
+ * <p>
+ * The selected method is memoized per tuple of argument classes. The tuple
+ * used last is checked first, so a selector always called with arguments of
+ * the same classes ("monomorphic") needs no map lookup.
+ * <p>
+ * An OverloadSet is never persisted in a method map, it is recreated when
+ * the selector is looked up the next time.
+ */
+final class OverloadSet {
+    private static final Map<Class<?>, Class<?>> WRAPPER_TO_PRIMITIVE = new HashMap<>();
+    /**
+     * primitive type -> the primitive types it can be widened to
+     */
+    private static final Map<Class<?>, List<Class<?>>> WIDENINGS = new HashMap<>();
+
+    static {
+        WRAPPER_TO_PRIMITIVE.put(Boolean.class, boolean.class);
+        WRAPPER_TO_PRIMITIVE.put(Byte.class, byte.class);
+        WRAPPER_TO_PRIMITIVE.put(Character.class, char.class);
+        WRAPPER_TO_PRIMITIVE.put(Short.class, short.class);
+        WRAPPER_TO_PRIMITIVE.put(Integer.class, int.class);
+        WRAPPER_TO_PRIMITIVE.put(Long.class, long.class);
+        WRAPPER_TO_PRIMITIVE.put(Float.class, float.class);
+        WRAPPER_TO_PRIMITIVE.put(Double.class, double.class);
+
+        WIDENINGS.put(byte.class, Arrays.asList(short.class, int.class, long.class, float.class, double.class));
+        WIDENINGS.put(short.class, Arrays.asList(int.class, long.class, float.class, double.class));
+        WIDENINGS.put(char.class, Arrays.asList(int.class, long.class, float.class, double.class));
+        WIDENINGS.put(int.class, Arrays.asList(long.class, float.class, double.class));
+        WIDENINGS.put(long.class, Arrays.asList(float.class, double.class));
+        WIDENINGS.put(float.class, Arrays.asList(double.class));
+    }
+
+    /**
+     * A tuple of argument classes ({@code null} for a {@code null} argument)
+     * and the Method (or IllegalArgumentException) selected for it.
+     */
+    private static final class Selection {
+        final Class<?>[] argumentClasses;
+        final Object methodOrException;
+
+        Selection(Class<?>[] argumentClasses, Object methodOrException) {
+            this.argumentClasses = argumentClasses;
+            this.methodOrException = methodOrException;
+        }
+
+        boolean matches(Object[] arguments) {
+            if (arguments.length != argumentClasses.length) {
+                return false;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                Object argument = arguments[i];
+                if ((argument != null ? argument.getClass() : null) != argumentClasses[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final String selector;
+    private final Method[] candidates;
+    /**
+     * (argument classes -> Method|IllegalArgumentException)
+     */
+    private final Map<List<Class<?>>, Object> selections = new ConcurrentHashMap<>();
+    private volatile Selection lastSelection;
+
+    OverloadSet(String selector, Method[] candidates) {
+        this.selector = selector;
+        this.candidates = candidates;
+    }
+
+    Method[] getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Returns the method to invoke for the {@code arguments}.
+     *
+     * @throws IllegalArgumentException when no method is applicable to the
+     *                                  arguments, or no applicable method is
+     *                                  more specific than all others (the
+     *                                  selector is understood, but not with
+     *                                  these arguments).
+     */
+    Method select(Object[] arguments) {
+        Object[] args = arguments != null ? arguments : NO_ARGUMENTS;
+        Selection selection = lastSelection;
+        if (selection == null || !selection.matches(args)) {
+            Class<?>[] argumentClasses = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argumentClasses[i] = args[i] != null ? args[i].getClass() : null;
+            }
+            Object methodOrException = selections.computeIfAbsent(
+                    Arrays.asList(argumentClasses), k -> selectUncached(argumentClasses));
+            selection = new Selection(argumentClasses, methodOrException);
+            lastSelection = selection;
+        }
+        if (selection.methodOrException instanceof IllegalArgumentException) {
+            throw (IllegalArgumentException) selection.methodOrException;
+        }
+        return (Method) selection.methodOrException;
+    }
+
+    private Object selectUncached(Class<?>[] argumentClasses) {
+        // phase 1: without unboxing, phase 2: with unboxing (and widening)
+        for (boolean allowUnboxing : new boolean[]{false, true}) {
+            List<Method> applicable = new ArrayList<>();
+            for (Method candidate : candidates) {
+                if (isApplicable(candidate.getParameterTypes(), argumentClasses, allowUnboxing)) {
+                    applicable.add(candidate);
+                }
+            }
+            if (!applicable.isEmpty()) {
+                Method mostSpecific = mostSpecific(applicable);
+                if (mostSpecific != null) {
+                    return mostSpecific;
+                }
+                return newIllegalArgumentException("ambiguous", argumentClasses);
+            }
+        }
+        return newIllegalArgumentException("not applicable", argumentClasses);
+    }
+
+    private static boolean isApplicable(
+            Class<?>[] parameterTypes, Class<?>[] argumentClasses, boolean allowUnboxing) {
+        if (parameterTypes.length != argumentClasses.length) {
+            return false;
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            Class<?> argumentClass = argumentClasses[i];
+            if (argumentClass == null) {
+                if (parameterType.isPrimitive()) {
+                    return false;
+                }
+            } else if (parameterType.isPrimitive()) {
+                if (!allowUnboxing || !isWideningOrIdentity(WRAPPER_TO_PRIMITIVE.get(argumentClass), parameterType)) {
+                    return false;
+                }
+            } else if (!parameterType.isAssignableFrom(argumentClass)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the method more specific than all other {@code methods}, or
+     * {@code null} when there is no such method.
+     */
+    private static Method mostSpecific(List<Method> methods) {
+        for (Method method : methods) {
+            boolean isMostSpecific = true;
+            for (Method other : methods) {
+                if (other != method && !isMoreSpecific(method.getParameterTypes(), other.getParameterTypes())) {
+                    isMostSpecific = false;
+                    break;
+                }
+            }
+            if (isMostSpecific) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isMoreSpecific(Class<?>[] parameterTypes, Class<?>[] otherParameterTypes) {
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> type = parameterTypes[i];
+            Class<?> otherType = otherParameterTypes[i];
+            boolean isMoreSpecific = type.isPrimitive() == otherType.isPrimitive() && (type.isPrimitive()
+                    ? isWideningOrIdentity(type, otherType)
+                    : otherType.isAssignableFrom(type));
+            if (!isMoreSpecific) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWideningOrIdentity(Class<?> from, Class<?> to) {
+        return from != null && (from == to || WIDENINGS.getOrDefault(from, Collections.emptyList()).contains(to));
+    }
+
+    private IllegalArgumentException newIllegalArgumentException(String reason, Class<?>[] argumentClasses) {
+        StringJoiner arguments = new StringJoiner(",", "(", ")");
+        for (Class<?> argumentClass : argumentClasses) {
+            arguments.add(argumentClass != null ? argumentClass.getName() : "null");
+        }
+        return new IllegalArgumentException(selector + arguments + ": " + reason);
+    }
+}
@@ -1,16 +1,30 @@
 package org.abego.lab.perform.core;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class Performer {
     private Performer() {
@@ -30,25 +44,278 @@ public final class Performer {
         extraDelayInOriginalGetMethodInMicros = delayInMicros;
     }
 
+    /**
+     * The selector of the handler a receiver may define for messages it does
+     * not understand, i.e. a method {@code doesNotUnderstand(Message)}.
+     */
+    public static final String DOES_NOT_UNDERSTAND_SELECTOR = "doesNotUnderstand:";
+
+    /**
+     * Sends the message {@code selector} with the {@code arguments} to the
+     * {@code receiver}.
+     * <p>
+     * When the receiver does not understand the selector, its
+     * {@code doesNotUnderstand(Message)} handler is called with the message
+     * (if the receiver has one). The handler is memoized with the selector,
+     * so repeated sends cost one lookup and the handler call. A
+     * {@link ForwardingProxy} forwards the message to its target instead.
+     * <p>
+     * Intrinsics of classes (see
+     * {@link #addIntrinsic(Class, String, ClassExtension)}) are performed
+     * before any method lookup, intrinsics of interfaces only when the
+     * receiver has no method for the selector.
+     *
+     * @throws UnsupportedOperationException when the receiver neither
+     *                                       understands the selector nor has
+     *                                       a {@code doesNotUnderstand} handler.
+     * @throws IllegalArgumentException      when the selector is understood,
+     *                                       but none of its (overloaded)
+     *                                       methods is applicable to the
+     *                                       arguments, or the choice is
+     *                                       ambiguous.
+     */
     public static Object perform(Object receiver, String selector, Object... arguments) {
+        if (intrinsicsEnabled) {
+            ClassExtension intrinsic = intrinsics.get(receiver.getClass(), selector);
+            if (intrinsic != null) {
+                return intrinsic.perform(receiver, arguments);
+            }
+        }
+        Object methodOrExtension;
         try {
-            return getMethod(receiver.getClass(), selector)
-                    .invoke(receiver, arguments);
+            methodOrExtension = getMethod(receiver.getClass(), selector, arguments);
+        } catch (NoSuchMethodException e) {
+            ClassExtension intrinsic = interfaceIntrinsic(receiver.getClass(), selector);
+            if (intrinsic != null) {
+                return intrinsic.perform(receiver, arguments);
+            }
+            methodOrExtension = notUnderstoodEntry(receiver.getClass(), selector, e);
+        }
+        if (methodOrExtension instanceof ForwardingEntry) {
+            return forward((ForwardingEntry) methodOrExtension, receiver, selector, arguments);
+        }
+        if (methodOrExtension instanceof DoesNotUnderstandEntry) {
+            return invoke(receiver, DOES_NOT_UNDERSTAND_SELECTOR,
+                    ((DoesNotUnderstandEntry) methodOrExtension).getHandler(),
+                    new Object[]{new Message(selector, arguments)});
+        }
+        return invoke(receiver, selector, methodOrExtension, arguments);
+    }
 
+    private static Object invoke(
+            Object receiver, String selector, Object methodOrExtension, Object[] arguments) {
+        if (methodOrExtension instanceof ClassExtension) {
+            return ((ClassExtension) methodOrExtension).perform(receiver, arguments);
+        }
+        Method method = (Method) methodOrExtension;
+        int argumentCount = arguments != null ? arguments.length : 0;
+        if (method.getParameterCount() != argumentCount && !method.isVarArgs()) {
+            throw new IllegalArgumentException(String.format(
+                    "'%s' expects %d argument(s), got %d",
+                    selector, method.getParameterCount(), argumentCount));
+        }
+        try {
+            return method.invoke(receiver, arguments);
         } catch (IllegalAccessException | InvocationTargetException e) {
             throw new PerformException(e);
+        }
+    }
+
+    /**
+     * Returns the {@link ForwardingEntry} (for a {@link ForwardingProxy}) or
+     * the entry with the {@code doesNotUnderstand:} handler of {@code type},
+     * for the {@code selector} not understood by the type.
+     * <p>
+     * When the NoSuchMethodException {@code e} is memoized for the selector
+     * it is replaced by the entry, so the next send of the selector finds
+     * the entry without another lookup and exception.
+     *
+     * @throws UnsupportedOperationException when {@code type} is no
+     *                                       forwarding proxy and has no
+     *                                       {@code doesNotUnderstand:}
+     *                                       handler.
+     */
+    private static Object notUnderstoodEntry(
+            Class<?> type, String selector, NoSuchMethodException e) {
+        Object entry;
+        if (ForwardingProxy.class.isAssignableFrom(type)) {
+            entry = new ForwardingEntry(e);
+        } else {
+            Object handler = doesNotUnderstandHandler(type);
+            if (handler == null) {
+                throw new UnsupportedOperationException(
+                        String.format("%s does not understand '%s'", type.getName(), selector), e);
+            }
+            entry = new DoesNotUnderstandEntry(e, handler);
+        }
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        Map<String, Object> selectorToMethodMap = methodMap != null ? methodMap.get(type) : null;
+        if (selectorToMethodMap != null) {
+            selectorToMethodMap.replace(selector, e, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Forwards the message to the target of the {@code proxy}.
+     * <p>
+     * The Method (or ClassExtension) the target's class memoizes for the
+     * selector is remembered in the {@code entry}, so the next send to a
+     * proxy with a target of the same class invokes it directly.
+     */
+    private static Object forward(
+            ForwardingEntry entry, Object proxy, String selector, Object[] arguments) {
+        Object target = ((ForwardingProxy) proxy).getForwardingTarget();
+        Class<?> targetType = target.getClass();
+        Object methodOrExtension = entry.methodOrExtensionFor(targetType);
+        if (methodOrExtension != null) {
+            return invoke(target, selector, methodOrExtension, arguments);
+        }
+        try {
+            methodOrExtension = getMethod(targetType, selector, arguments);
         } catch (NoSuchMethodException e) {
-            // this would be a good place to implement "doesNotUnderstand"
-            // behaviour, as known from Smalltalk.
-            // For now, we just fail
-            throw new UnsupportedOperationException(
-                    String.format("%s does not understand '%s'", receiver.getClass()
-                            .getName(), selector),
-                    e);
+            return perform(target, selector, arguments);
+        }
+        if (!(methodOrExtension instanceof Method || methodOrExtension instanceof ClassExtension)) {
+            // not understood by the target (or a proxy itself)
+            return perform(target, selector, arguments);
+        }
+        if (isMemoized(targetType, selector, methodOrExtension)) {
+            // (not for a method selected from overloads by the arguments)
+            entry.setTarget(targetType, methodOrExtension);
+        }
+        return invoke(target, selector, methodOrExtension, arguments);
+    }
+
+    private static boolean isMemoized(Class<?> type, String selector, Object value) {
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        Map<String, Object> selectorToMethodMap = methodMap != null ? methodMap.get(type) : null;
+        return selectorToMethodMap != null && selectorToMethodMap.get(selector) == value;
+    }
+
+    /**
+     * Returns the {@code doesNotUnderstand(Message)} method (or the
+     * {@code doesNotUnderstand:} extension) of {@code type}, or {@code null}
+     * when the type has no such handler.
+     * <p>
+     * Uses the (cached) method index of the type, so a miss neither costs an
+     * original getMethod call nor adds an entry to the method map.
+     */
+    private static Object doesNotUnderstandHandler(Class<?> type) {
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : MethodIndex.forClass(type).getMethods("doesNotUnderstand")) {
+            if (!method.isBridge() && method.getParameterCount() == 1
+                    && method.getParameterTypes()[0].isAssignableFrom(Message.class)) {
+                candidates.add(method);
+            }
+        }
+        ClassExtension extension = extensionFor(type, DOES_NOT_UNDERSTAND_SELECTOR, candidates);
+        if (extension != null) {
+            return extension;
+        }
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * The number of originalGetMethod calls so far, to check in tests what
+     * lookups were answered by memoization.
+     */
+    private static final AtomicLong originalGetMethodCallCount = new AtomicLong();
+
+    static long getOriginalGetMethodCallCount() {
+        return originalGetMethodCallCount.get();
+    }
+
+    /**
+     * Returns the Method implementing the {@code selector} in {@code type},
+     * an {@link OverloadSet} when several (overloaded) methods match the
+     * selector, or the {@link ClassExtension} added for the selector (see
+     * {@link #addExtension(Class, String, ClassExtension)}).
+     * <p>
+     * A method matches when it has the method name the selector translates
+     * to and as many parameters as the selector has keywords (for keyword
+     * selectors). Bridge methods are ignored.
+     * <p>
+     * For class-side selectors (see {@link #classSideSelector(String)}) only
+     * the static methods match.
+     */
+    private static Object originalGetMethod(Class<?> type, String selector) throws NoSuchMethodException {
+        originalGetMethodCost();
+
+        if (selector.startsWith(CLASS_SIDE_SELECTOR_PREFIX)) {
+            return originalGetClassSideMethod(type, selector);
+        }
+        SelectorTranslator.Translation translation = SelectorTranslator.translate(selector);
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : MethodIndex.forClass(type).getMethods(translation.getMethodName())) {
+            if (!method.isBridge() && translation.acceptsParameterCount(method.getParameterCount())) {
+                candidates.add(method);
+            }
+        }
+        ClassExtension extension = extensionFor(type, selector, candidates);
+        if (extension != null) {
+            return extension;
+        }
+        if (candidates.isEmpty()) {
+            // no method found.
+            throw new NoSuchMethodException(selector);
+        }
+        return methodOrOverloadSet(selector, candidates);
+    }
+
+    private static Object methodOrOverloadSet(String selector, List<Method> candidates) {
+        return candidates.size() == 1
+                ? candidates.get(0)
+                : new OverloadSet(selector, candidates.toArray(new Method[0]));
+    }
+
+    /**
+     * Returns the Method (or ClassExtension) to perform with the
+     * {@code arguments}, given the {@code methodOrOverloadSet} implementing
+     * a selector.
+     */
+    private static Object methodFor(Object methodOrOverloadSet, Object[] arguments) {
+        return methodOrOverloadSet instanceof OverloadSet
+                ? ((OverloadSet) methodOrOverloadSet).select(arguments)
+                : methodOrOverloadSet;
+    }
+
+    /**
+     * Returns the methods of all selectors understood by {@code type}, i.e.
+     * what {@link #originalGetMethod(Class, String)} returns for each of
+     * these selectors, at the cost of a single originalGetMethod call.
+     */
+    private static Map<String, Object> originalGetAllMethods(Class<?> type) {
+        originalGetMethodCost();
+
+        Map<String, List<Method>> selectorToCandidates = new HashMap<>();
+        MethodIndex methodIndex = MethodIndex.forClass(type);
+        for (String methodName : methodIndex.getMethodNames()) {
+            for (Method method : methodIndex.getMethods(methodName)) {
+                if (method.isBridge()) {
+                    continue;
+                }
+                for (String selector : selectors(methodName, method.getParameterCount())) {
+                    selectorToCandidates.computeIfAbsent(selector, s -> new ArrayList<>()).add(method);
+                }
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        selectorToCandidates.forEach((selector, candidates) ->
+                result.put(selector, methodOrOverloadSet(selector, candidates)));
+        for (String selector : selectorToExtensions.keySet()) {
+            ClassExtension extension = extensionFor(type, selector,
+                    selectorToCandidates.getOrDefault(selector, Collections.emptyList()));
+            if (extension != null) {
+                result.put(selector, extension);
+            }
         }
+        return result;
     }
 
-    private static Method originalGetMethod(Class<?> type, String selector) throws NoSuchMethodException {
+    private static void originalGetMethodCost() {
+        originalGetMethodCallCount.incrementAndGet();
+
         // To demonstrate the effect of memoization better make the original
         // getMethod implementation slower with a little delay. This also
         // compensates the fact a little that "original" getMethod is more
@@ -58,21 +325,23 @@ public final class Performer {
         while (System.nanoTime() < endTime) {
             // busy waiting
         }
+    }
 
-        // Just to demonstrate a dispatch with a non-ID selector name we
-        // translate the "+" selector to the "plus" method name
-        String methodName = selector.equals("+") ? "plus" : selector;
-
-        for (Method method : type.getMethods()) {
-            // for now just return the first method matching the methodName
-            // (ignore overloads)
-            if (method.getName().equals(methodName)) {
-                return method;
-            }
-        }
+    /**
+     * Returns the name of the Java method implementing the {@code selector}
+     * (see {@link SelectorTranslator}).
+     */
+    static String methodName(String selector) {
+        return SelectorTranslator.methodName(selector);
+    }
 
-        // no method found.
-        throw new NoSuchMethodException(selector);
+    /**
+     * Returns the selectors implemented by a Java method named
+     * {@code methodName} with {@code parameterCount} parameters, i.e. the
+     * reverse of {@link #methodName(String)}.
+     */
+    static List<String> selectors(String methodName, int parameterCount) {
+        return SelectorTranslator.selectors(methodName, parameterCount);
     }
 
     //endregion
@@ -80,9 +349,24 @@ public final class Performer {
     //region Memoization
 
     /**
-     * A 2-step map, mapping (Class -> (selector: String -> Method|MethodLocator|NoSuchMethodException))
+     * A 2-step map, mapping (Class -> (selector: String -> Method|MethodLocator|NoSuchMethodException
+     * |OverloadSet|ClassExtension|DoesNotUnderstandEntry|ForwardingEntry))
+     * <p>
+     * Both steps use ConcurrentHashMaps as the map may be modified by
+     * background threads (e.g. when reading ahead a method map).
+     * <p>
+     * Background threads adding entries to the current method map must
+     * check it is still current and add the entries while holding the
+     * {@link #methodMapLock}, so the entries never end up in a replaced map.
      */
-    private static Map<Class<?>, Map<String, Object>> classToSelectorToMethodMap;
+    private static volatile Map<Class<?>, Map<String, Object>> classToSelectorToMethodMap;
+    /**
+     * Guards replacing the {@link #classToSelectorToMethodMap} against
+     * background threads adding entries to it.
+     */
+    private static final Object methodMapLock = new Object();
+
+    private static boolean selectorPrefillEnabled;
 
     public static boolean isMemoizationEnabled() {
         return classToSelectorToMethodMap != null;
@@ -101,24 +385,82 @@ public final class Performer {
         }
     }
 
-    private static Method getMethod(Class<?> type, String selector)
+    public static boolean isSelectorPrefillEnabled() {
+        return selectorPrefillEnabled;
+    }
+
+    /**
+     * Enables (or disables) resolving all selectors of a class at once.
+     * <p>
+     * When enabled, the first lookup of a class not yet in the method map
+     * adds all selectors the class understands to the method map, in one
+     * pass. All later lookups of the class (with understood selectors) are
+     * answered from the memoization, even when saved and loaded again.
+     * <p>
+     * This pays off when most selectors of a class are used, but makes the
+     * method map larger (e.g. it also contains the methods of
+     * {@code java.lang.Object}).
+     */
+    public static void setSelectorPrefillEnabled(boolean value) {
+        selectorPrefillEnabled = value;
+    }
+
+    /**
+     * Returns the Method (or {@link ClassExtension},
+     * {@link DoesNotUnderstandEntry}, {@link ForwardingEntry}) to perform for
+     * the {@code selector} and {@code arguments} on an instance of
+     * {@code type}.
+     */
+    private static Object getMethod(Class<?> type, String selector, Object[] arguments)
             throws NoSuchMethodException {
 
         if (isMemoizationEnabled()) {
-            Object value = classToSelectorToMethodMap.computeIfAbsent(type,
-                            c -> new HashMap<>())
-                    .computeIfAbsent(selector, s -> {
-                        try {
-                            // only when no method was found in the cache the
-                            // "expensive" original getMethod is called.
-                            return originalGetMethod(type, selector);
-                        } catch (NoSuchMethodException e) {
-                            return e;
-                        }
-                    });
+            if (usageProfile != null) {
+                usageProfile.recordHit(type, selector);
+            }
+            Map<String, Object> selectorToMethodMap = classToSelectorToMethodMap.get(type);
+            if (selectorToMethodMap == null) {
+                selectorToMethodMap = newSelectorToMethodMap(type);
+            }
+            Object value = selectorToMethodMap.get(selector);
+            if (value == null && baseMethodMap != null && !isExtended(type, selector)) {
+                value = baseMethodOrException(type, selector);
+            }
+            if (value == null && sharedMethodMap != null) {
+                // maybe another process resolved the method in the meantime
+                // (the entries of the type are added to selectorToMethodMap,
+                // unless the method map was replaced in the meantime)
+                readSharedEntries();
+                value = selectorToMethodMap.get(selector);
+            }
+            if (value == null) {
+                Object[] resolved = new Object[1];
+                value = selectorToMethodMap.computeIfAbsent(selector, s -> {
+                    try {
+                        // only when no method was found in the cache the
+                        // "expensive" original getMethod is called.
+                        resolved[0] = originalGetMethod(type, selector);
+                    } catch (NoSuchMethodException e) {
+                        resolved[0] = e;
+                    }
+                    return resolved[0];
+                });
+                // share what this thread resolved, but not while holding
+                // the lock of the map entry (sharing involves file I/O)
+                if (resolved[0] instanceof Method || resolved[0] instanceof NoSuchMethodException) {
+                    shareEntry(type, selector, resolved[0]);
+                }
+            }
             if (value instanceof Method) {
                 return (Method) value;
             }
+            if (value instanceof OverloadSet) {
+                return ((OverloadSet) value).select(arguments);
+            }
+            if (value instanceof ClassExtension || value instanceof DoesNotUnderstandEntry
+                    || value instanceof ForwardingEntry) {
+                return value;
+            }
             if (value instanceof NoSuchMethodException) {
                 throw (NoSuchMethodException) value;
             }
@@ -126,35 +468,232 @@ public final class Performer {
             // and not NoSuchMethodException, i.e. it is some data defined by
             // the MethodSerializer required to resolve the Method lazily.
             //
-            // Delegate this job to the MethodSerializer.
-            return methodSerializer.resolveMethod(
+            // Delegate this job to the MethodSerializer. (Entries shared by
+            // other processes are always resolved by the blocks serializer.)
+            MethodSerializer serializer = value instanceof MethodMapEntry
+                    ? blocksSerializer : loadedMethodSerializer;
+            Method method = serializer.resolveMethod(
                     type, selector, value, classToSelectorToMethodMap);
+            if (method != null) {
+                return method;
+            }
+            // The data was outdated and is removed from the map now. Look up
+            // the method again, this time using the original getMethod.
+            return getMethod(type, selector, arguments);
 
         } else {
-            return originalGetMethod(type, selector);
+            return methodFor(originalGetMethod(type, selector), arguments);
+        }
+    }
+
+    private static Map<String, Object> newSelectorToMethodMap(Class<?> type) {
+        // This is the first time we see the type. If there is a method map
+        // shard for the type's package waiting to be loaded, load it now.
+        if (pendingShards != null) {
+            String shardFilePath = pendingShards.remove(MethodMapShards.packageName(type));
+            if (shardFilePath != null) {
+                loadShard(shardFilePath);
+                Map<String, Object> selectorToMethodMap = classToSelectorToMethodMap.get(type);
+                if (selectorToMethodMap != null) {
+                    return selectorToMethodMap;
+                }
+            }
+        }
+        Map<String, Object> selectorToMethodMap = new ConcurrentHashMap<>();
+        if (selectorPrefillEnabled) {
+            selectorToMethodMap.putAll(originalGetAllMethods(type));
+        }
+        Map<String, Object> existingSelectorToMethodMap =
+                classToSelectorToMethodMap.putIfAbsent(type, selectorToMethodMap);
+        return existingSelectorToMethodMap != null ? existingSelectorToMethodMap : selectorToMethodMap;
+    }
+
+    /**
+     * Adds the entries of {@code methodMap} to the current method map.
+     * <p>
+     * Entries already in the current method map are kept.
+     */
+    private static void addMethodMap(Map<Class<?>, Map<String, Object>> methodMap) {
+        addMethodMap(classToSelectorToMethodMap, methodMap);
+    }
+
+    /**
+     * Adds the entries of {@code methodMap} to {@code targetMethodMap}.
+     * <p>
+     * Entries already in {@code targetMethodMap} are kept.
+     */
+    private static void addMethodMap(
+            Map<Class<?>, Map<String, Object>> targetMethodMap,
+            Map<Class<?>, Map<String, Object>> methodMap) {
+        removeExtendedEntries(methodMap);
+        for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+            Map<String, Object> selectorToMethodMap =
+                    targetMethodMap.putIfAbsent(entry.getKey(), entry.getValue());
+            if (selectorToMethodMap != null) {
+                for (Map.Entry<String, Object> selectorToMethod : entry.getValue().entrySet()) {
+                    selectorToMethodMap.putIfAbsent(
+                            selectorToMethod.getKey(), selectorToMethod.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the resolved entries {@code selectorToMethodMap} for {@code type}
+     * to the current method map (if memoization is enabled), e.g. entries
+     * resolved in the background by the {@link MethodMapAgent}.
+     * <p>
+     * Entries already in the current method map are kept.
+     */
+    static void addResolvedMethods(Class<?> type, Map<String, Object> selectorToMethodMap) {
+        synchronized (methodMapLock) {
+            Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+            if (methodMap != null) {
+                addMethodMap(methodMap,
+                        Collections.singletonMap(type, new ConcurrentHashMap<>(selectorToMethodMap)));
+            }
         }
     }
 
     private static void newEmptyMethodMap() {
-        classToSelectorToMethodMap = new IdentityHashMap<>();
+        setMethodMap(new ConcurrentHashMap<>());
     }
 
     private static void removeMethodMap() {
-        classToSelectorToMethodMap = null;
+        setMethodMap(null);
+    }
+
+    /**
+     * Replaces the current method map by {@code methodMap}, dropping
+     * everything still pending for the old map (shards, read-ahead).
+     */
+    private static void setMethodMap(Map<Class<?>, Map<String, Object>> methodMap) {
+        if (readAhead != null) {
+            readAhead.stop();
+            readAhead = null;
+            readAheadThread = null;
+        }
+        pendingShards = null;
+        if (methodMap != null) {
+            removeExtendedEntries(methodMap);
+        }
+        synchronized (methodMapLock) {
+            classToSelectorToMethodMap = methodMap;
+        }
+        // super sends are memoized whenever instance-side sends are
+        superMethodMap = methodMap != null ? new ConcurrentHashMap<>() : null;
+        epoch.incrementAndGet();
+        if (sharedMethodMap != null) {
+            // the new method map gets all shared entries
+            sharedMethodMap.rewind();
+        }
     }
 
     //endregion
 
     //region Serialization of Memoization data
 
-    private static final MethodSerializer methodSerializer = new MethodSerializerUsingObjectStreams();
+    private static final MethodSerializer objectStreamsSerializer = new MethodSerializerUsingObjectStreams();
+    private static final MethodSerializerUsingBlocks blocksSerializer = new MethodSerializerUsingBlocks();
+
+    private static MethodMapFormat methodMapFormat = MethodMapFormat.OBJECT_STREAMS;
+    private static MethodSerializer methodSerializer = objectStreamsSerializer;
+    /**
+     * The MethodSerializer that loaded the current method map, i.e. the one
+     * that knows how to resolve the "lazy" values in the map.
+     */
+    private static MethodSerializer loadedMethodSerializer = methodSerializer;
+
+    public static MethodMapFormat getMethodMapFormat() {
+        return methodMapFormat;
+    }
+
+    /**
+     * Sets the file format used when saving and loading methods.
+     * <p>
+     * Lazily loaded entries are always resolved by the format they were
+     * loaded with. To convert a method map into a different format load it
+     * with {@link #loadMethods(String)} (not lazy), switch the format and
+     * save it.
+     */
+    public static void setMethodMapFormat(MethodMapFormat format) {
+        methodMapFormat = format;
+        methodSerializer = format == MethodMapFormat.BLOCKS
+                ? blocksSerializer : objectStreamsSerializer;
+    }
+
+    public static int getMethodMapCompressionLevel() {
+        return blocksSerializer.getCompressionLevel();
+    }
+
+    /**
+     * Sets the level (0-9, as defined by {@link java.util.zip.Deflater}) used
+     * to compress the class blocks of a method map saved in the
+     * {@link MethodMapFormat#BLOCKS} format.
+     * <p>
+     * Level 0 (the default) stores the blocks uncompressed. Compressed blocks
+     * make the file smaller, but require extra time to compress when saving
+     * and to decompress when loading. Compression pays off when reading the
+     * file is more expensive than decompressing it, e.g. on slow disks.
+     */
+    public static void setMethodMapCompressionLevel(int level) {
+        blocksSerializer.setCompressionLevel(level);
+    }
+
+    public static int getClassPreloadThreadCount() {
+        return blocksSerializer.getClassPreloadThreadCount();
+    }
+
+    /**
+     * Sets the number of threads loading the classes of a method map in
+     * parallel, or 0 (the default) to load them in the calling thread.
+     * <p>
+     * Loading a method map also loads (and links) the classes it refers to,
+     * what takes much longer than resolving the methods. With parallel
+     * class preloading these classes are loaded on a pool of threads, in the
+     * order they were used the first time in the profiled run (see
+     * {@link #setUsageProfilingEnabled(boolean)}), so the classes the
+     * application needs are usually already loaded when it reaches them.
+     * <p>
+     * Only used for the {@link MethodMapFormat#BLOCKS} format, that can read
+     * the class names without loading the classes.
+     */
+    public static void setClassPreloadThreadCount(int threadCount) {
+        blocksSerializer.setClassPreloadThreadCount(threadCount);
+    }
+
+    public static boolean isClassPreloadInitialization() {
+        return blocksSerializer.isClassPreloadInitialization();
+    }
+
+    /**
+     * Defines if classes preloaded in parallel (see
+     * {@link #setClassPreloadThreadCount(int)}) are also initialized, i.e.
+     * their static initializers run in the loading threads (default:
+     * {@code false}).
+     * <p>
+     * Only enable this when the static initializers of the classes do not
+     * depend on the order or thread they run in.
+     */
+    public static void setClassPreloadInitialization(boolean value) {
+        blocksSerializer.setClassPreloadInitialization(value);
+    }
 
+    /**
+     * Saves the memoized methods.
+     * <p>
+     * When a base method map is loaded (see {@link #loadBaseMethods(String)})
+     * only the entries not in the base method map are saved.
+     */
     public static void saveMethods(String filePath) throws IOException {
         if (!isMemoizationEnabled()) {
             throw new IllegalStateException("Must enable memoization to save methods.");
         }
 
-        methodSerializer.saveMethods(filePath, classToSelectorToMethodMap);
+        Map<Class<?>, Map<String, Object>> methodMap = baseMethodMap != null
+                ? withoutEmptyClasses(classToSelectorToMethodMap)
+                : classToSelectorToMethodMap;
+        methodSerializer.saveMethods(filePath, methodMap, usageProfile);
     }
 
     public static void loadMethods(String filePath) throws IOException, ClassNotFoundException, NoSuchMethodException {
@@ -165,6 +704,22 @@ public final class Performer {
         loadMethods(filePath, true);
     }
 
+    /**
+     * Loads the methods from the resource {@code resourcePath} (without the
+     * ".methods" suffix), e.g. a method map generated at build time by
+     * {@link MethodMapGenerator}.
+     * <p>
+     * The resource must be in the {@link MethodMapFormat#BLOCKS} format and
+     * is found via the context class loader of the current thread.
+     */
+    public static void loadMethodsFromResource(String resourcePath) throws IOException {
+        loadMethodsFromResource(resourcePath, false);
+    }
+
+    public static void loadMethodsFromResourceLazy(String resourcePath) throws IOException {
+        loadMethodsFromResource(resourcePath, true);
+    }
+
     public static void dumpMethods(Writer writer) throws IOException {
         methodSerializer.dumpMethods(writer, classToSelectorToMethodMap);
     }
@@ -177,7 +732,1065 @@ public final class Performer {
     }
 
     private static void loadMethods(String filePath, boolean loadMethodsLazy) throws IOException, ClassNotFoundException, NoSuchMethodException {
-        classToSelectorToMethodMap = methodSerializer.loadMethods(filePath, loadMethodsLazy);
+        setMethodMap(methodSerializer.loadMethods(filePath, loadMethodsLazy, usageProfile));
+        loadedMethodSerializer = methodSerializer;
+    }
+
+    private static void loadMethodsFromResource(String resourcePath, boolean loadMethodsLazy) throws IOException {
+        String resourceName = resourcePath + ".methods";
+        try (InputStream in = ClassNames.defaultClassLoader().getResourceAsStream(resourceName)) {
+            if (in == null) {
+                throw new FileNotFoundException("Method map resource not found: " + resourceName);
+            }
+            setMethodMap(blocksSerializer.loadMethods(in, loadMethodsLazy));
+        }
+        loadedMethodSerializer = blocksSerializer;
+    }
+
+    //endregion
+
+    //region Asynchronous loading
+
+    /**
+     * Starts loading the methods from {@code filePath} in a background
+     * thread and returns immediately.
+     * <p>
+     * See {@link #loadMethodsAsync(String, long)}.
+     */
+    public static CompletableFuture<Void> loadMethodsAsync(String filePath) {
+        return loadMethodsAsync(filePath, 0);
+    }
+
+    /**
+     * Starts loading the methods from {@code filePath} in a background
+     * thread and waits at most {@code maxWaitMillis} milliseconds for the
+     * loading to complete.
+     * <p>
+     * Until the loading is complete lookups use the current method map
+     * (memoization is enabled when necessary), i.e. methods not yet in the
+     * method map are resolved with the original getMethod as usual. When the
+     * loading is complete the loaded entries are added to the current method
+     * map, keeping the entries resolved in the meantime. When the current
+     * method map is replaced before (e.g. by {@link #loadMethods(String)}) the
+     * loaded entries are dropped.
+     * <p>
+     * The returned future completes when the loaded entries were added, or
+     * exceptionally when the loading failed. A timeout or failure does not
+     * affect the caller otherwise, i.e. the application just continues
+     * without the loaded methods.
+     */
+    public static CompletableFuture<Void> loadMethodsAsync(String filePath, long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxWaitMillis must not be negative");
+        }
+        if (!isMemoizationEnabled()) {
+            newEmptyMethodMap();
+        }
+        Map<Class<?>, Map<String, Object>> targetMethodMap = classToSelectorToMethodMap;
+        MethodSerializer serializer = methodSerializer;
+        UsageProfile profile = usageProfile;
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                // load eagerly, so all the resolving happens in this thread
+                // and the loaded entries need no specific serializer.
+                Map<Class<?>, Map<String, Object>> methodMap =
+                        serializer.loadMethods(filePath, false, profile);
+                synchronized (methodMapLock) {
+                    if (classToSelectorToMethodMap == targetMethodMap) {
+                        addMethodMap(targetMethodMap, methodMap);
+                    }
+                }
+                result.complete(null);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }, "perform-method-map-loader");
+        thread.setDaemon(true);
+        thread.start();
+
+        if (maxWaitMillis > 0) {
+            try {
+                result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // reported by the future, continue without the methods
+            }
+        }
+        return result;
+    }
+
+    //endregion
+
+    //region Layered method maps (base and overlay)
+
+    /**
+     * The read-only base method map, or {@code null} when no base method map
+     * is loaded.
+     * <p>
+     * The entries of the base method map are never copied into the current
+     * method map (the "overlay"), so saving the current method map only saves
+     * what is not in the base method map.
+     */
+    private static Map<Class<?>, Map<String, Object>> baseMethodMap;
+    /**
+     * The MethodSerializer that loaded the base method map.
+     */
+    private static MethodSerializer baseMethodSerializer;
+
+    /**
+     * Loads the methods from {@code filePath} as the base method map, e.g. a
+     * method map with the methods of a framework, shared by all applications
+     * using the framework.
+     * <p>
+     * The base method map is used in addition to the current method map:
+     * lookups check the current method map first, then the base method map.
+     * It is never modified by lookups or written by
+     * {@link #saveMethods(String)}, i.e. a method map saved by an application
+     * only contains the application specific entries (the "overlay"). So the
+     * base method map can be built once per framework release.
+     * <p>
+     * The base method map is kept when the current method map is replaced
+     * (e.g. by {@link #loadMethods(String)}), until it is cleared with
+     * {@link #clearBaseMethods()}.
+     */
+    public static void loadBaseMethods(String filePath) throws IOException, ClassNotFoundException, NoSuchMethodException {
+        loadBaseMethods(filePath, false);
+    }
+
+    /**
+     * Like {@link #loadBaseMethods(String)}, but loads the base method map
+     * lazily (see {@link #loadMethodsLazy(String)}).
+     */
+    public static void loadBaseMethodsLazy(String filePath) throws IOException, ClassNotFoundException, NoSuchMethodException {
+        loadBaseMethods(filePath, true);
+    }
+
+    /**
+     * Like {@link #loadBaseMethods(String)}, but loads the base method map
+     * from a resource (see {@link #loadMethodsFromResource(String)}), e.g. a
+     * method map generated when building the framework and shipped with it.
+     * <p>
+     * The base method map is loaded lazily.
+     */
+    public static void loadBaseMethodsFromResource(String resourcePath) throws IOException {
+        String resourceName = resourcePath + ".methods";
+        try (InputStream in = ClassNames.defaultClassLoader().getResourceAsStream(resourceName)) {
+            if (in == null) {
+                throw new FileNotFoundException("Method map resource not found: " + resourceName);
+            }
+            setBaseMethodMap(blocksSerializer.loadMethods(in, true), blocksSerializer);
+        }
+    }
+
+    public static void clearBaseMethods() {
+        setBaseMethodMap(null, null);
+    }
+
+    private static void loadBaseMethods(String filePath, boolean loadMethodsLazy) throws IOException, ClassNotFoundException, NoSuchMethodException {
+        setBaseMethodMap(methodSerializer.loadMethods(filePath, loadMethodsLazy), methodSerializer);
+    }
+
+    private static void setBaseMethodMap(
+            Map<Class<?>, Map<String, Object>> methodMap, MethodSerializer serializer) {
+        baseMethodMap = methodMap;
+        baseMethodSerializer = serializer;
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Returns the Method or NoSuchMethodException the base method map
+     * contains for {@code type} and {@code selector}, or {@code null} when
+     * the base method map has no (valid) entry for them.
+     */
+    private static Object baseMethodOrException(Class<?> type, String selector) {
+        Map<Class<?>, Map<String, Object>> methodMap = baseMethodMap;
+        Map<String, Object> selectorToMethodMap = methodMap != null ? methodMap.get(type) : null;
+        Object value = selectorToMethodMap != null ? selectorToMethodMap.get(selector) : null;
+        if (value == null || value instanceof Method || value instanceof NoSuchMethodException) {
+            return value;
+        }
+        // a lazily loaded value. Resolving it only replaces the value by the
+        // Method (or removes an outdated value) in the base method map, the
+        // content of the base method map stays the same.
+        try {
+            return baseMethodSerializer.resolveMethod(type, selector, value, methodMap);
+        } catch (NoSuchMethodException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Returns the {@code methodMap} without the classes that have no entry,
+     * e.g. the classes added to the current method map for lookups answered
+     * by the base method map.
+     */
+    private static Map<Class<?>, Map<String, Object>> withoutEmptyClasses(
+            Map<Class<?>, Map<String, Object>> methodMap) {
+        Map<Class<?>, Map<String, Object>> result = new HashMap<>();
+        for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    //endregion
+
+    //region Profile-guided loading
+
+    /**
+     * The usage profile recorded for the current run, or {@code null} when
+     * usage profiling is disabled.
+     */
+    private static UsageProfile usageProfile;
+    private static MethodMapReadAhead readAhead;
+    private static Thread readAheadThread;
+
+    public static boolean isUsageProfilingEnabled() {
+        return usageProfile != null;
+    }
+
+    /**
+     * Enables (or disables) recording in what order the (class, selector)
+     * combinations are used the first time and how often they are used.
+     * <p>
+     * When enabled {@link #saveMethods(String)} stores this data and writes
+     * the most used entries first (only in the {@link MethodMapFormat#BLOCKS}
+     * format). This allows {@link #loadMethodsHotFirst(String, int)} to
+     * resolve the "hot" entries first.
+     * <p>
+     * Usage profiling requires memoization and adds some extra cost to
+     * every lookup.
+     */
+    public static void setUsageProfilingEnabled(boolean value) {
+        if (value == isUsageProfilingEnabled()) {
+            // nothing to change
+            return;
+        }
+        usageProfile = value ? new UsageProfile() : null;
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Loads the methods from a file saved in the {@link MethodMapFormat#BLOCKS}
+     * format (ideally with usage profiling enabled), as a hybrid of
+     * {@link #loadMethods(String)} and {@link #loadMethodsLazy(String)}.
+     * <p>
+     * The first {@code eagerEntryBudget} entries of the file, i.e. the most
+     * used ones, are resolved eagerly before this method returns. A
+     * background thread resolves the remaining entries, in the order they
+     * were used the first time in the profiled run. Entries requested before
+     * the background thread resolved them are resolved lazily.
+     * <p>
+     * An {@code eagerEntryBudget} of 0 only defers the work to the
+     * background, {@link Integer#MAX_VALUE} is equivalent to
+     * {@link #loadMethods(String)}.
+     */
+    public static void loadMethodsHotFirst(String filePath, int eagerEntryBudget) throws IOException {
+        if (eagerEntryBudget < 0) {
+            throw new IllegalArgumentException("eagerEntryBudget must not be negative");
+        }
+        MethodMapReadAhead newReadAhead = blocksSerializer.loadMethodsHotFirst(filePath, eagerEntryBudget, usageProfile);
+        setMethodMap(newReadAhead.getMethodMap());
+        loadedMethodSerializer = blocksSerializer;
+        if (!newReadAhead.isEmpty()) {
+            readAhead = newReadAhead;
+            readAheadThread = new Thread(newReadAhead, "perform-method-map-read-ahead");
+            readAheadThread.setDaemon(true);
+            readAheadThread.start();
+        }
+    }
+
+    public static int getPruneAfterUnusedRuns() {
+        return blocksSerializer.getPruneAfterUnusedRuns();
+    }
+
+    /**
+     * Sets after how many consecutive runs without using an entry
+     * {@link #saveMethods(String)} drops the entry, or 0 (the default) to
+     * keep all entries.
+     * <p>
+     * Without pruning a method map that is loaded and saved again in every
+     * run only grows, as it contains all entries ever used. With pruning its
+     * size (and load time) follows the working set of the recent runs.
+     * <p>
+     * Requires usage profiling (see
+     * {@link #setUsageProfilingEnabled(boolean)}, enabled before loading
+     * the method map) and the {@link MethodMapFormat#BLOCKS} format, that
+     * stores the number of unused runs with every entry.
+     */
+    public static void setPruneAfterUnusedRuns(int runs) {
+        blocksSerializer.setPruneAfterUnusedRuns(runs);
+    }
+
+    public static long getPruneMinHitCount() {
+        return blocksSerializer.getPruneMinHitCount();
+    }
+
+    /**
+     * Sets how often an entry must be used in a run to count as "used" in
+     * that run (default: 1).
+     * <p>
+     * With a higher threshold rarely used entries are pruned, too. E.g.
+     * with {@code setPruneAfterUnusedRuns(1)} and
+     * {@code setPruneMinHitCount(10)} {@link #saveMethods(String)} only
+     * keeps the entries used at least 10 times in the current run.
+     */
+    public static void setPruneMinHitCount(long hitCount) {
+        blocksSerializer.setPruneMinHitCount(hitCount);
+    }
+
+    /**
+     * Waits until the background thread started by
+     * {@link #loadMethodsHotFirst(String, int)} has finished.
+     */
+    static void awaitReadAhead() throws InterruptedException {
+        Thread thread = readAheadThread;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    //endregion
+
+    //region Shared method map (across processes)
+
+    /**
+     * The method map shared with other processes, or {@code null} when
+     * no shared method map is used.
+     */
+    private static SharedMethodMap sharedMethodMap;
+
+    /**
+     * Shares the memoized methods with other processes (e.g. other JVMs
+     * running the same code base on this host) through the memory-mapped
+     * file {@code filePath}, created with a default capacity when it does
+     * not exist yet.
+     * <p>
+     * See {@link #useSharedMethodMap(String, int)}.
+     */
+    public static void useSharedMethodMap(String filePath) throws IOException {
+        useSharedMethodMap(filePath, SharedMethodMap.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Shares the memoized methods with other processes (e.g. other JVMs
+     * running the same code base on this host) through the memory-mapped
+     * file {@code filePath}, created with the given {@code capacity} (in
+     * bytes) when it does not exist yet.
+     * <p>
+     * Every method resolved with the original getMethod is appended to the
+     * shared file. Before the original getMethod is called the entries
+     * appended by other processes are added to the method map, so a process
+     * started later benefits from everything already resolved by the other
+     * processes.
+     * <p>
+     * Only has an effect when memoization is enabled. A shared method map
+     * used before is closed.
+     */
+    public static void useSharedMethodMap(String filePath, int capacity) throws IOException {
+        closeSharedMethodMap();
+        sharedMethodMap = SharedMethodMap.open(filePath, capacity);
+        epoch.incrementAndGet();
+    }
+
+    public static void closeSharedMethodMap() throws IOException {
+        SharedMethodMap oldSharedMethodMap = sharedMethodMap;
+        if (oldSharedMethodMap != null) {
+            sharedMethodMap = null;
+            epoch.incrementAndGet();
+            oldSharedMethodMap.close();
+        }
+    }
+
+    /**
+     * Adds the entries appended to the shared method map (by any process)
+     * since the last call to the method map.
+     * <p>
+     * The entries are added lazily, i.e. are resolved when needed.
+     */
+    private static void readSharedEntries() {
+        SharedMethodMap shared = sharedMethodMap;
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        if (shared == null || methodMap == null) {
+            return;
+        }
+        List<Map.Entry<Class<?>, MethodMapEntry>> entries = new ArrayList<>();
+        shared.readNewEntries((type, entry) -> {
+            if (!isExtended(type, entry.getSelector())) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(type, entry));
+            }
+        });
+        for (Map.Entry<Class<?>, MethodMapEntry> entry : entries) {
+            Class<?> type = entry.getKey();
+            Map<String, Object> selectorToMethodMap = methodMap.get(type);
+            if (selectorToMethodMap == null) {
+                if (methodMap != classToSelectorToMethodMap) {
+                    // the method map was replaced in the meantime
+                    return;
+                }
+                // create the map as a lookup does (loading the pending
+                // shard of the type's package, prefilling selectors)
+                selectorToMethodMap = newSelectorToMethodMap(type);
+            }
+            selectorToMethodMap.putIfAbsent(entry.getValue().getSelector(), entry.getValue());
+        }
+    }
+
+    /**
+     * Appends the entry to the shared method map (if any).
+     * <p>
+     * Sharing is "best effort": when the entry cannot be appended (e.g.
+     * because of an I/O error) it is just not shared, as when the shared
+     * file is full. The entry is still in this process' method map.
+     */
+    private static void shareEntry(Class<?> type, String selector, Object methodOrException) {
+        SharedMethodMap shared = sharedMethodMap;
+        if (shared == null) {
+            return;
+        }
+        try {
+            shared.append(type, selector, methodOrException);
+        } catch (IOException e) {
+            // not shared, as when the shared file is full
+        }
+    }
+
+    //endregion
+
+    //region Sharded method maps
+
+    /**
+     * (packageName -> shard file path) of the shards not yet loaded, or
+     * {@code null} when no sharded method map is used.
+     */
+    private static Map<String, String> pendingShards;
+    private static boolean loadShardsLazy;
+
+    /**
+     * Saves the methods as "shards", i.e. one method map file per package,
+     * into the directory {@code directoryPath}.
+     * <p>
+     * A manifest in the directory lists all packages with a shard. Shards
+     * already in the directory for packages not in the current method map
+     * are kept, i.e. one can regenerate some shards without touching the
+     * others.
+     */
+    public static void saveMethodsSharded(String directoryPath) throws IOException {
+        saveMethodsSharded(directoryPath, null);
+    }
+
+    /**
+     * Saves the methods of the classes in the package {@code packageName}
+     * as a shard into the directory {@code directoryPath} (see
+     * {@link #saveMethodsSharded(String)}), leaving the other shards
+     * untouched.
+     */
+    public static void saveMethodsShard(String directoryPath, String packageName) throws IOException {
+        saveMethodsSharded(directoryPath, packageName);
+    }
+
+    /**
+     * Prepares the sharded method map in {@code directoryPath} (see
+     * {@link #saveMethodsSharded(String)}) to be used for memoization.
+     * <p>
+     * Only the manifest is read immediately. A shard is loaded the first time
+     * a method is requested for a class of the shard's package.
+     */
+    public static void loadMethodsSharded(String directoryPath) throws IOException {
+        loadMethodsSharded(directoryPath, false);
+    }
+
+    /**
+     * Like {@link #loadMethodsSharded(String)}, but loads the shards lazily
+     * (see {@link #loadMethodsLazy(String)}).
+     */
+    public static void loadMethodsShardedLazy(String directoryPath) throws IOException {
+        loadMethodsSharded(directoryPath, true);
+    }
+
+    private static void saveMethodsSharded(String directoryPath, String packageNameOrNull) throws IOException {
+        if (!isMemoizationEnabled()) {
+            throw new IllegalStateException("Must enable memoization to save methods.");
+        }
+
+        Files.createDirectories(Paths.get(directoryPath));
+        Map<String, Map<Class<?>, Map<String, Object>>> methodMapsByPackage =
+                MethodMapShards.methodMapsByPackage(classToSelectorToMethodMap);
+        if (packageNameOrNull != null) {
+            methodMapsByPackage.keySet().retainAll(Collections.singleton(packageNameOrNull));
+        }
+        for (Map.Entry<String, Map<Class<?>, Map<String, Object>>> entry : methodMapsByPackage.entrySet()) {
+            String shardFilePath = MethodMapShards.shardFilePath(
+                    directoryPath, MethodMapShards.shardName(entry.getKey()));
+            methodSerializer.saveMethods(shardFilePath, entry.getValue());
+        }
+        MethodMapShards.addToManifest(directoryPath, methodMapsByPackage.keySet());
+    }
+
+    private static void loadMethodsSharded(String directoryPath, boolean lazy) throws IOException {
+        Map<String, String> shards = MethodMapShards.readManifest(directoryPath);
+        newEmptyMethodMap();
+        loadedMethodSerializer = methodSerializer;
+        pendingShards = new ConcurrentHashMap<>(shards);
+        loadShardsLazy = lazy;
+    }
+
+    private static void loadShard(String shardFilePath) {
+        try {
+            addMethodMap(loadedMethodSerializer.loadMethods(shardFilePath, loadShardsLazy));
+        } catch (IOException | ClassNotFoundException | NoSuchMethodException e) {
+            throw new PerformException(e);
+        }
+    }
+
+    //endregion
+
+    //region Class extensions
+
+    /**
+     * (selector -> (class -> extension)) of all extensions added.
+     */
+    private static final Map<String, Map<Class<?>, ClassExtension>> selectorToExtensions =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Adds the {@code extension} as the implementation of {@code selector}
+     * for {@code type} and its subclasses.
+     * <p>
+     * The extension takes precedence over the Java methods {@code type}
+     * declares or inherits for the selector, but not over the ones declared
+     * in a subclass of {@code type} (or over an extension of a subclass).
+     * <p>
+     * Only the memoized entries for the selector in {@code type} and its
+     * subclasses are invalidated, all other entries are kept. Entries of
+     * method maps loaded later (or of the base method map) for the selector
+     * are ignored in {@code type} and its subclasses.
+     * <p>
+     * Extensions are expected to be added (and removed) while no other
+     * thread performs the selector.
+     *
+     * @param type a class (extensions of interfaces are not supported)
+     */
+    public static void addExtension(Class<?> type, String selector, ClassExtension extension) {
+        if (type.isInterface()) {
+            throw new IllegalArgumentException("Interfaces cannot be extended: " + type.getName());
+        }
+        selectorToExtensions.computeIfAbsent(selector, s -> new ConcurrentHashMap<>())
+                .put(type, extension);
+        invalidateEntries(type, selector);
+    }
+
+    /**
+     * Adds the public static method {@code staticMethod} as the
+     * implementation of {@code selector} for {@code type}, see
+     * {@link #addExtension(Class, String, ClassExtension)}.
+     * <p>
+     * The receiver is passed as the first argument of the method, followed
+     * by the arguments of the message.
+     */
+    public static void addExtension(Class<?> type, String selector, Method staticMethod) {
+        int parameterCount = staticMethod.getParameterCount();
+        if (!Modifier.isStatic(staticMethod.getModifiers()) || parameterCount == 0
+                || !staticMethod.getParameterTypes()[0].isAssignableFrom(type)) {
+            throw new IllegalArgumentException(String.format(
+                    "%s must be static, with a first parameter accepting %s",
+                    staticMethod, type.getName()));
+        }
+        if (!SelectorTranslator.translate(selector).acceptsParameterCount(parameterCount - 1)) {
+            throw new IllegalArgumentException(String.format(
+                    "%s does not match the selector '%s'", staticMethod, selector));
+        }
+        addExtension(type, selector, (receiver, arguments) -> {
+            int argumentCount = arguments != null ? arguments.length : 0;
+            Object[] receiverAndArguments = new Object[argumentCount + 1];
+            receiverAndArguments[0] = receiver;
+            if (argumentCount > 0) {
+                System.arraycopy(arguments, 0, receiverAndArguments, 1, argumentCount);
+            }
+            try {
+                return staticMethod.invoke(null, receiverAndArguments);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new PerformException(e);
+            }
+        });
+    }
+
+    /**
+     * Removes the extension of {@code selector} for {@code type} (if any).
+     * <p>
+     * Like {@link #addExtension(Class, String, ClassExtension)} this only
+     * invalidates the memoized entries for the selector in {@code type} and
+     * its subclasses.
+     */
+    public static void removeExtension(Class<?> type, String selector) {
+        boolean[] removed = new boolean[1];
+        selectorToExtensions.computeIfPresent(selector, (s, extensions) -> {
+            removed[0] = extensions.remove(type) != null;
+            return extensions.isEmpty() ? null : extensions;
+        });
+        if (removed[0]) {
+            invalidateEntries(type, selector);
+        }
+    }
+
+    /**
+     * Returns the extension to perform for {@code selector} in {@code type},
+     * or {@code null} when the Java methods {@code candidates} (matching the
+     * selector) are to be used.
+     * <p>
+     * Walks from {@code type} up the superclass chain, returning the first
+     * extension found, unless a class on the way declares a candidate.
+     */
+    private static ClassExtension extensionFor(Class<?> type, String selector, List<Method> candidates) {
+        Map<Class<?>, ClassExtension> extensions = selectorToExtensions.get(selector);
+        if (extensions == null) {
+            return null;
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            ClassExtension extension = extensions.get(c);
+            if (extension != null) {
+                return extension;
+            }
+            for (Method candidate : candidates) {
+                if (candidate.getDeclaringClass() == c) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} when {@code type} is (a subclass of) a class with
+     * an extension for {@code selector}.
+     */
+    private static boolean isExtended(Class<?> type, String selector) {
+        Map<Class<?>, ClassExtension> extensions = selectorToExtensions.get(selector);
+        if (extensions == null) {
+            return false;
+        }
+        for (Class<?> extendedType : extensions.keySet()) {
+            if (extendedType.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the entries for {@code selector} in {@code type} and its
+     * subclasses from the current method map (and from the memo of super
+     * sends), and the forwarding entries for the selector (that may have
+     * learned a method of these classes).
+     */
+    private static void invalidateEntries(Class<?> type, String selector) {
+        epoch.incrementAndGet();
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        if (methodMap == null) {
+            return;
+        }
+        for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                removeEntry(entry.getValue(), selector);
+            } else if (entry.getValue().get(selector) instanceof ForwardingEntry) {
+                entry.getValue().remove(selector);
+            }
+        }
+        Map<Class<?>, Map<String, Object>> superMethods = superMethodMap;
+        if (superMethods != null) {
+            for (Map.Entry<Class<?>, Map<String, Object>> entry : superMethods.entrySet()) {
+                if (type.isAssignableFrom(entry.getKey())) {
+                    entry.getValue().remove(selector);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for {@code selector}, and for the
+     * {@code doesNotUnderstand:} selector also the entries memoizing the
+     * handler.
+     */
+    private static void removeEntry(Map<String, Object> selectorToMethodMap, String selector) {
+        selectorToMethodMap.remove(selector);
+        if (selector.equals(DOES_NOT_UNDERSTAND_SELECTOR)) {
+            selectorToMethodMap.values().removeIf(v -> v instanceof DoesNotUnderstandEntry);
+        }
+    }
+
+    /**
+     * Removes the entries for extended selectors from {@code methodMap}
+     * (e.g. a method map just loaded), in the classes the extensions apply
+     * to.
+     */
+    private static void removeExtendedEntries(Map<Class<?>, Map<String, Object>> methodMap) {
+        for (Map.Entry<String, Map<Class<?>, ClassExtension>> extensions : selectorToExtensions.entrySet()) {
+            for (Class<?> extendedType : extensions.getValue().keySet()) {
+                for (Map.Entry<Class<?>, Map<String, Object>> entry : methodMap.entrySet()) {
+                    if (extendedType.isAssignableFrom(entry.getKey())) {
+                        removeEntry(entry.getValue(), extensions.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    //endregion
+
+    //region Intrinsics
+
+    private static final Intrinsics intrinsics = Intrinsics.withBuiltins();
+    private static boolean intrinsicsEnabled = true;
+
+    public static boolean isIntrinsicsEnabled() {
+        return intrinsicsEnabled;
+    }
+
+    /**
+     * Enables or disables intrinsics (enabled by default), e.g. to compare
+     * them with the reflective dispatch.
+     */
+    public static void setIntrinsicsEnabled(boolean value) {
+        intrinsicsEnabled = value;
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Returns the intrinsic of an interface for {@code selector} sent to an
+     * instance of {@code type}, or {@code null} when there is none or
+     * intrinsics are disabled.
+     */
+    private static ClassExtension interfaceIntrinsic(Class<?> type, String selector) {
+        return intrinsicsEnabled ? intrinsics.getInterfaceIntrinsic(type, selector) : null;
+    }
+
+    /**
+     * Adds the {@code intrinsic} as the implementation of {@code selector}
+     * for instances of {@code type} (including its subtypes).
+     * <p>
+     * Intrinsics of classes are performed before any method lookup
+     * (memoized or not), so they take precedence over methods and
+     * extensions. Intrinsics of interfaces are only performed when the
+     * receiver has no method (or extension) for the selector. Built-in
+     * intrinsics exist for the arithmetic and comparison selectors
+     * ({@code + - * / < > <= >= = max: min:}) of {@code Integer},
+     * {@code Long} and {@code Double}, for {@code ,} (concatenation) and
+     * {@code size} of {@code String}, and for {@code value},
+     * {@code value:} and {@code value:value:} of the
+     * {@code java.util.function} interfaces. An intrinsic added for the
+     * same type and selector replaces the built-in one.
+     */
+    public static void addIntrinsic(Class<?> type, String selector, ClassExtension intrinsic) {
+        intrinsics.add(type, selector, intrinsic);
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Removes the intrinsic of {@code selector} for {@code type} (if any,
+     * including a built-in one).
+     */
+    public static void removeIntrinsic(Class<?> type, String selector) {
+        intrinsics.remove(type, selector);
+        epoch.incrementAndGet();
+    }
+
+    //endregion
+
+    //region Super sends
+
+    /**
+     * The memo of {@link #performSuper(Object, Class, String, Object...)},
+     * mapping (start class -> (selector: String -> SuperMethod|OverloadSet
+     * |ClassExtension|NoSuchMethodException)), or {@code null} when
+     * memoization is disabled.
+     * <p>
+     * Independent of the receiver, and never saved.
+     */
+    private static Map<Class<?>, Map<String, Object>> superMethodMap;
+    /**
+     * ((start class, Method) -> SuperMethod) for the methods selected from
+     * overloads in super sends.
+     */
+    private static final Map<Map.Entry<Class<?>, Method>, SuperMethod> superMethodsOfOverloads =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Sends the message {@code selector} with the {@code arguments} to the
+     * {@code receiver}, looking up the method starting at {@code startClass}
+     * (instead of the receiver's class), as Smalltalk's {@code super} sends
+     * do (with the superclass of the class containing the send as start
+     * class).
+     * <p>
+     * The method found is invoked non-virtually, i.e. an override of the
+     * method in a subclass of {@code startClass} is not called. Lookups are
+     * memoized per (start class, selector), like the lookups of
+     * {@link #perform(Object, String, Object...)} per (receiver class,
+     * selector).
+     *
+     * @param startClass a class the receiver is an instance of
+     * @throws UnsupportedOperationException when {@code startClass} does not
+     *                                       understand the selector (and the
+     *                                       receiver has no
+     *                                       {@code doesNotUnderstand} handler)
+     */
+    public static Object performSuper(Object receiver, Class<?> startClass, String selector, Object... arguments) {
+        if (!startClass.isInstance(receiver)) {
+            throw new IllegalArgumentException(String.format(
+                    "%s is not an instance of %s", receiver.getClass().getName(), startClass.getName()));
+        }
+        Object superMethod;
+        try {
+            superMethod = getSuperMethod(startClass, selector, arguments);
+        } catch (NoSuchMethodException e) {
+            Object handler = doesNotUnderstandHandler(receiver.getClass());
+            if (handler == null) {
+                throw new UnsupportedOperationException(String.format(
+                        "%s does not understand '%s'", startClass.getName(), selector), e);
+            }
+            return invoke(receiver, DOES_NOT_UNDERSTAND_SELECTOR, handler,
+                    new Object[]{new Message(selector, arguments)});
+        }
+        if (superMethod instanceof ClassExtension) {
+            return ((ClassExtension) superMethod).perform(receiver, arguments);
+        }
+        SuperMethod method = (SuperMethod) superMethod;
+        int argumentCount = arguments != null ? arguments.length : 0;
+        if (method.getMethod().getParameterCount() != argumentCount) {
+            throw new IllegalArgumentException(String.format(
+                    "'%s' expects %d argument(s), got %d",
+                    selector, method.getMethod().getParameterCount(), argumentCount));
+        }
+        try {
+            return method.invoke(receiver, arguments);
+        } catch (InvocationTargetException e) {
+            throw new PerformException(e);
+        }
+    }
+
+    /**
+     * Returns the SuperMethod (or ClassExtension) to perform for the
+     * {@code selector} and {@code arguments}, looked up starting at
+     * {@code startClass}.
+     */
+    private static Object getSuperMethod(Class<?> startClass, String selector, Object[] arguments)
+            throws NoSuchMethodException {
+        Map<Class<?>, Map<String, Object>> superMethods = superMethodMap;
+        Object value;
+        if (superMethods != null) {
+            value = superMethods.computeIfAbsent(startClass, c -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(selector, s -> {
+                        try {
+                            return toSuperMethod(startClass, originalGetMethod(startClass, selector));
+                        } catch (NoSuchMethodException e) {
+                            return e;
+                        }
+                    });
+        } else {
+            value = toSuperMethod(startClass, originalGetMethod(startClass, selector));
+        }
+        if (value instanceof SuperMethod || value instanceof ClassExtension) {
+            return value;
+        }
+        if (value instanceof OverloadSet) {
+            Method method = ((OverloadSet) value).select(arguments);
+            return superMethodsOfOverloads.computeIfAbsent(
+                    new AbstractMap.SimpleImmutableEntry<>(startClass, method),
+                    k -> new SuperMethod(startClass, method));
+        }
+        throw (NoSuchMethodException) value;
+    }
+
+    private static Object toSuperMethod(Class<?> startClass, Object methodOrOverloadSet) {
+        return methodOrOverloadSet instanceof Method
+                ? new SuperMethod(startClass, (Method) methodOrOverloadSet)
+                : methodOrOverloadSet;
+    }
+
+    //endregion
+
+    //region Class-side sends
+
+    /**
+     * The prefix of the selectors under which the class-side (static)
+     * methods of a class are memoized, next to its instance-side methods.
+     */
+    static final String CLASS_SIDE_SELECTOR_PREFIX = "class ";
+
+    /**
+     * (selector -> class-side selector), to not build the class-side
+     * selector on every send.
+     */
+    private static final Map<String, String> selectorToClassSideSelector = new ConcurrentHashMap<>();
+
+    /**
+     * Sends the message {@code selector} with the {@code arguments} to the
+     * class {@code type}, i.e. invokes the public static method of the class
+     * implementing the selector.
+     * <p>
+     * As with Smalltalk's class methods, the static methods of the
+     * superclasses are inherited, and a static method of a subclass
+     * overrides (hides) the one with the same parameter types of a
+     * superclass.
+     * <p>
+     * The class-side methods are memoized in the same method map as the
+     * instance-side methods (with selectors prefixed by
+     * {@value #CLASS_SIDE_SELECTOR_PREFIX}), so they are saved and loaded
+     * with {@link #saveMethods(String)} and {@link #loadMethods(String)},
+     * too.
+     *
+     * @throws UnsupportedOperationException when the class does not
+     *                                       understand the selector.
+     */
+    public static Object performClass(Class<?> type, String selector, Object... arguments) {
+        Object methodOrExtension;
+        try {
+            methodOrExtension = getMethod(type, classSideSelector(selector), arguments);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException(
+                    String.format("%s class does not understand '%s'", type.getName(), selector), e);
+        }
+        return invoke(type, selector, methodOrExtension, arguments);
+    }
+
+    private static String classSideSelector(String selector) {
+        return selectorToClassSideSelector.computeIfAbsent(
+                selector, s -> CLASS_SIDE_SELECTOR_PREFIX + s);
+    }
+
+    /**
+     * Returns the static Method (or OverloadSet) implementing the class-side
+     * selector {@code classSideSelector} in {@code type} or its
+     * superclasses.
+     */
+    private static Object originalGetClassSideMethod(Class<?> type, String classSideSelector)
+            throws NoSuchMethodException {
+        String selector = classSideSelector.substring(CLASS_SIDE_SELECTOR_PREFIX.length());
+        SelectorTranslator.Translation translation = SelectorTranslator.translate(selector);
+        // (parameter types -> method), keeping the static method of the most
+        // specific class when one hides another
+        Map<List<Class<?>>, Method> parameterTypesToMethod = new LinkedHashMap<>();
+        for (Method method : MethodIndex.forClass(type).getMethods(translation.getMethodName())) {
+            if (Modifier.isStatic(method.getModifiers()) && !method.isBridge()
+                    && translation.acceptsParameterCount(method.getParameterCount())) {
+                parameterTypesToMethod.merge(Arrays.asList(method.getParameterTypes()), method,
+                        (m1, m2) -> m1.getDeclaringClass().isAssignableFrom(m2.getDeclaringClass()) ? m2 : m1);
+            }
+        }
+        if (parameterTypesToMethod.isEmpty()) {
+            throw new NoSuchMethodException(classSideSelector);
+        }
+        return methodOrOverloadSet(classSideSelector, new ArrayList<>(parameterTypesToMethod.values()));
+    }
+
+    //endregion
+
+    //region Cascades and Expressions
+
+    /**
+     * Incremented whenever the methods resolved for (class, selector) pairs
+     * may change, e.g. when a method map (including a base or shared one) is
+     * loaded or an extension is added, to invalidate the methods cached by
+     * {@link Cascade}s and {@link Expression}s.
+     */
+    private static final AtomicLong epoch = new AtomicLong();
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    static long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Sends the unary messages {@code selectors} to the {@code receiver}, in
+     * order, and returns the result of the last message (like a Smalltalk
+     * cascade {@code receiver foo; bar; baz}).
+     * <p>
+     * The method map of the receiver's class is fetched once for all
+     * messages. To send the same messages repeatedly, prefer a
+     * {@link Cascade}, which also skips the lookups of the selectors.
+     */
+    public static Object cascade(Object receiver, String... selectors) {
+        Class<?> type = receiver.getClass();
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        Map<String, ClassExtension> typeIntrinsics = intrinsicsEnabled
+                ? intrinsics.get(type) : Collections.emptyMap();
+        boolean fastPath = methodMap != null && usageProfile == null;
+        Map<String, Object> selectorToMethodMap = fastPath ? methodMap.get(type) : null;
+        Object result = null;
+        for (String selector : selectors) {
+            Object value = selectorToMethodMap != null ? selectorToMethodMap.get(selector) : null;
+            if (value instanceof Method && !typeIntrinsics.containsKey(selector)) {
+                result = invoke(receiver, selector, value, NO_ARGUMENTS);
+            } else {
+                result = perform(receiver, selector);
+                if (fastPath && selectorToMethodMap == null) {
+                    // the perform may have created the method map of the type
+                    selectorToMethodMap = methodMap.get(type);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns, for each of the {@code messages}, the Method or ClassExtension
+     * to perform for an instance of {@code type}, as defined by
+     * {@link #resolve(Class, String, Object[])}.
+     */
+    static Object[] resolveAll(Class<?> type, Message[] messages) {
+        Object[] result = new Object[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            result[i] = resolve(type, messages[i].getSelector(), messages[i].getArguments());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Method or ClassExtension to perform for the message
+     * ({@code selector}, {@code arguments}) sent to an instance of
+     * {@code type}, or {@code null} when the message needs a regular perform
+     * (e.g. an overloaded method, or no memoization).
+     * <p>
+     * The result may be kept (e.g. in an inline cache of a {@link Cascade}
+     * or {@link Expression}) for instances of {@code type} as long as
+     * {@link #getEpoch()} does not change.
+     */
+    static Object resolve(Class<?> type, String selector, Object[] arguments) {
+        Map<Class<?>, Map<String, Object>> methodMap = classToSelectorToMethodMap;
+        if (methodMap == null || usageProfile != null) {
+            return null;
+        }
+        ClassExtension intrinsic = intrinsicsEnabled ? intrinsics.get(type, selector) : null;
+        if (intrinsic != null) {
+            return intrinsic;
+        }
+        Object methodOrExtension;
+        try {
+            methodOrExtension = getMethod(type, selector, arguments);
+        } catch (NoSuchMethodException e) {
+            return interfaceIntrinsic(type, selector);
+        }
+        Map<String, Object> selectorToMethodMap = methodMap.get(type);
+        boolean isOverload = selectorToMethodMap != null
+                && selectorToMethodMap.get(selector) instanceof OverloadSet;
+        return (methodOrExtension instanceof Method || methodOrExtension instanceof ClassExtension)
+                && !isOverload ? methodOrExtension : null;
+    }
+
+    /**
+     * Performs the message with the {@code methodOrExtension} resolved by
+     * {@link #resolve(Class, String, Object[])}, or with a regular perform when
+     * nothing was resolved ({@code null}).
+     */
+    static Object performResolved(
+            Object receiver, String selector, Object methodOrExtension, Object[] arguments) {
+        return methodOrExtension != null
+                ? invoke(receiver, selector, methodOrExtension, arguments)
+                : perform(receiver, selector, arguments);
     }
 
     //endregion
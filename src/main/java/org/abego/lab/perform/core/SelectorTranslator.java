@@ -0,0 +1,258 @@
+package org.abego.lab.perform.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Translates Smalltalk-like selectors into the names of the Java methods
+ * implementing them, and back.
+ * <ul>
+ *     <li>Unary selectors (e.g. {@code "size"}) are used as they are.</li>
+ *     <li>Binary selectors (e.g. {@code "+"}, {@code "<="}, {@code "->"}) are
+ *     translated character by character into words, combined in camel case
+ *     (e.g. {@code "plus"}, {@code "lessEqual"}, {@code "minusGreater"}).</li>
+ *     <li>Keyword selectors (e.g. {@code "at:put:"}) are translated into the
+ *     camel case combination of their keywords (e.g. {@code "atPut"}). A
+ *     keyword selector is only implemented by methods with one parameter per
+ *     keyword.</li>
+ * </ul>
+ * Selectors not matching any of these forms are used as they are.
+ * <p>
+ * Translations are computed once per selector (or method name) and kept in
+ * tables shared by all classes.
+ */
+final class SelectorTranslator {
+    /**
+     * The number of parameters of a method implementing a selector, when not
+     * defined by the selector.
+     */
+    static final int ANY_PARAMETER_COUNT = -1;
+
+    private static final Map<Character, String> OPERATOR_CHAR_TO_WORD = new HashMap<>();
+    private static final Map<String, Character> OPERATOR_WORD_TO_CHAR = new HashMap<>();
+
+    static {
+        String[] charsAndWords = {
+                "+", "plus", "-", "minus", "*", "times", "/", "divide", "\\", "backslash",
+                "<", "less", ">", "greater", "=", "equal", "~", "tilde", "@", "atSign",
+                "%", "percent", "&", "and", "|", "or", ",", "comma", "?", "question",
+                "!", "bang"};
+        for (int i = 0; i < charsAndWords.length; i += 2) {
+            char c = charsAndWords[i].charAt(0);
+            OPERATOR_CHAR_TO_WORD.put(c, charsAndWords[i + 1]);
+            OPERATOR_WORD_TO_CHAR.put(charsAndWords[i + 1], c);
+        }
+    }
+
+    /**
+     * The translation of a selector.
+     */
+    static final class Translation {
+        private final String methodName;
+        private final int parameterCount;
+
+        Translation(String methodName, int parameterCount) {
+            this.methodName = methodName;
+            this.parameterCount = parameterCount;
+        }
+
+        String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * Returns the number of parameters a method implementing the
+         * selector must have, or {@link #ANY_PARAMETER_COUNT}.
+         */
+        int getParameterCount() {
+            return parameterCount;
+        }
+
+        boolean acceptsParameterCount(int count) {
+            return parameterCount == ANY_PARAMETER_COUNT || parameterCount == count;
+        }
+    }
+
+    private static final Map<String, Translation> SELECTOR_TO_TRANSLATION = new ConcurrentHashMap<>();
+    /**
+     * ("methodName/parameterCount" -> selectors)
+     */
+    private static final Map<String, List<String>> METHOD_TO_SELECTORS = new ConcurrentHashMap<>();
+
+    private SelectorTranslator() {
+    }
+
+    static Translation translate(String selector) {
+        Translation result = SELECTOR_TO_TRANSLATION.get(selector);
+        if (result == null) {
+            result = SELECTOR_TO_TRANSLATION.computeIfAbsent(selector, SelectorTranslator::newTranslation);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of the Java method implementing the {@code selector}.
+     */
+    static String methodName(String selector) {
+        return translate(selector).getMethodName();
+    }
+
+    /**
+     * Returns the selectors implemented by a Java method named
+     * {@code methodName} with {@code parameterCount} parameters, i.e. the
+     * reverse of {@link #translate(String)}.
+     * <p>
+     * The first selector is always the method name itself.
+     */
+    static List<String> selectors(String methodName, int parameterCount) {
+        String key = methodName + "/" + parameterCount;
+        List<String> result = METHOD_TO_SELECTORS.get(key);
+        if (result == null) {
+            result = METHOD_TO_SELECTORS.computeIfAbsent(key, k -> newSelectors(methodName, parameterCount));
+        }
+        return result;
+    }
+
+    private static Translation newTranslation(String selector) {
+        if (isBinarySelector(selector)) {
+            StringBuilder methodName = new StringBuilder();
+            for (int i = 0; i < selector.length(); i++) {
+                appendCamelCase(methodName, OPERATOR_CHAR_TO_WORD.get(selector.charAt(i)));
+            }
+            return new Translation(methodName.toString(), ANY_PARAMETER_COUNT);
+        }
+        if (isKeywordSelector(selector)) {
+            StringBuilder methodName = new StringBuilder();
+            String[] keywords = selector.split(":");
+            for (String keyword : keywords) {
+                appendCamelCase(methodName, keyword);
+            }
+            return new Translation(methodName.toString(), keywords.length);
+        }
+        return new Translation(selector, ANY_PARAMETER_COUNT);
+    }
+
+    private static List<String> newSelectors(String methodName, int parameterCount) {
+        List<String> words = camelCaseWords(methodName);
+        List<String> result = new ArrayList<>();
+        result.add(methodName);
+
+        String binarySelector = binarySelector(methodName);
+        if (binarySelector != null) {
+            result.add(binarySelector);
+        }
+
+        if (parameterCount == 1) {
+            result.add(methodName + ":");
+        } else if (parameterCount > 1 && words.size() == parameterCount) {
+            StringBuilder keywordSelector = new StringBuilder();
+            for (String word : words) {
+                keywordSelector.append(word).append(':');
+            }
+            result.add(keywordSelector.toString());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the binary selector translated into {@code methodName}, or
+     * {@code null} when the method name is not a translated binary
+     * selector.
+     */
+    private static String binarySelector(String methodName) {
+        StringBuilder result = new StringBuilder();
+        int position = 0;
+        while (position < methodName.length()) {
+            Character operatorChar = null;
+            for (Map.Entry<String, Character> entry : OPERATOR_WORD_TO_CHAR.entrySet()) {
+                String word = entry.getKey();
+                if (methodName.startsWith(word, position) && position == 0
+                        || methodName.startsWith(capitalized(word), position) && position > 0) {
+                    operatorChar = entry.getValue();
+                    position += word.length();
+                    break;
+                }
+            }
+            if (operatorChar == null) {
+                return null;
+            }
+            result.append(operatorChar);
+        }
+        // e.g. "atSignature" starts with a word, but is not a translation.
+        // Only use the selector when it translates back into the method name.
+        return methodName(result.toString()).equals(methodName) ? result.toString() : null;
+    }
+
+    /**
+     * Returns {@code true} when {@code c} may be used in a binary selector.
+     */
+    static boolean isOperatorChar(char c) {
+        return OPERATOR_CHAR_TO_WORD.containsKey(c);
+    }
+
+    private static boolean isBinarySelector(String selector) {
+        if (selector.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < selector.length(); i++) {
+            if (!OPERATOR_CHAR_TO_WORD.containsKey(selector.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} for selectors like "at:put:", i.e. one or more
+     * Java identifiers each followed by a colon.
+     */
+    private static boolean isKeywordSelector(String selector) {
+        if (!selector.endsWith(":")) {
+            return false;
+        }
+        boolean atKeywordStart = true;
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == ':') {
+                if (atKeywordStart) {
+                    return false;
+                }
+                atKeywordStart = true;
+            } else {
+                if (atKeywordStart ? !Character.isJavaIdentifierStart(c) : !Character.isJavaIdentifierPart(c)) {
+                    return false;
+                }
+                atKeywordStart = false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendCamelCase(StringBuilder sb, String word) {
+        sb.append(sb.length() == 0 ? word : capitalized(word));
+    }
+
+    private static String capitalized(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    /**
+     * Returns the words of a camel case name, the first letter of every
+     * word in lower case (e.g. "insertAt" -> ["insert", "at"]).
+     */
+    private static List<String> camelCaseWords(String name) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= name.length(); i++) {
+            if (i == name.length() || Character.isUpperCase(name.charAt(i))) {
+                result.add(Character.toLowerCase(name.charAt(start)) + name.substring(start + 1, i));
+                start = i;
+            }
+        }
+        return result;
+    }
+}
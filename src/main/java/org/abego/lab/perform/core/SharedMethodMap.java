@@ -0,0 +1,241 @@
+package org.abego.lab.perform.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A method map shared by several processes through a memory-mapped file,
+ * e.g. by several JVMs running the same code base on one host.
+ * <p>
+ * Every process appends the entries it resolves with the original getMethod
+ * to the file, and picks up the entries appended by other processes. So a
+ * process started later benefits immediately from everything the other
+ * processes have already resolved.
+ * <p>
+ * File layout:
+ * <pre>
+ * file   := MAGIC:int VERSION:int endOfRecords:long record* (zero bytes)*
+ * record := bodyLength:int crc:int body:byte[bodyLength]
+ * body   := className:UTF fingerprint:long selector:UTF kind:byte
+ *           [methodName:UTF parameterCount:short parameterTypeName:UTF*]
+ * </pre>
+ * Appending is serialized with a {@link FileLock} (and in the process with
+ * the monitor of this object). An appender writes the CRC and body of the
+ * record first and its length last, then updates {@code endOfRecords}
+ * (only used by appenders).
+ * <p>
+ * Reading is lock-free: every process has its own read position and reads
+ * the records from there on. A record with length 0 marks the end of the
+ * records. A record whose CRC does not match is not yet completely visible
+ * and is read again later, so a reader never sees a partially written
+ * record, independent of the order in which the other process' writes
+ * become visible.
+ * <p>
+ * The file has a fixed capacity. When it is full new entries are no longer
+ * shared (but still memoized in the process).
+ */
+final class SharedMethodMap implements Closeable {
+    static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x504D4D53; // "PMMS"
+    private static final int VERSION = 1;
+    private static final int END_OF_RECORDS_OFFSET = 8;
+    private static final int HEADER_LENGTH = 16;
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private static final byte KIND_METHOD = 0;
+    private static final byte KIND_NO_SUCH_METHOD = 1;
+
+    /**
+     * Called for every entry read from the shared file.
+     */
+    interface EntryConsumer {
+        void accept(Class<?> type, MethodMapEntry entry);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    /**
+     * (className + fingerprint) -> block, to validate the entries of a class
+     * only once.
+     */
+    private final Map<String, MethodMapBlock> blocks = new HashMap<>();
+    private int readPosition = HEADER_LENGTH;
+
+    private SharedMethodMap(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the shared method map in {@code filePath}, creating the file
+     * with the given {@code capacity} (in bytes) when it does not exist yet.
+     */
+    static SharedMethodMap open(String filePath, int capacity) throws IOException {
+        if (capacity < HEADER_LENGTH) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SharedMethodMap result;
+            FileLock lock = channel.lock();
+            try {
+                long size = Math.max(channel.size(), capacity);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                int magic = buffer.getInt(0);
+                if (magic == 0) {
+                    buffer.putInt(4, VERSION);
+                    buffer.putLong(END_OF_RECORDS_OFFSET, HEADER_LENGTH);
+                    buffer.putInt(0, MAGIC);
+                } else if (magic != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("Not a shared method map file: " + filePath);
+                }
+                result = new SharedMethodMap(channel, buffer);
+            } finally {
+                lock.release();
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restarts reading at the first record, e.g. to add all shared entries
+     * to a new method map.
+     */
+    synchronized void rewind() {
+        readPosition = HEADER_LENGTH;
+    }
+
+    /**
+     * Reads the records appended since the last call (by any process) and
+     * passes their entries to the {@code consumer}.
+     * <p>
+     * Entries of classes not available in this process are skipped.
+     */
+    synchronized void readNewEntries(EntryConsumer consumer) {
+        ByteBuffer view = buffer.duplicate();
+        while (readPosition + RECORD_HEADER_LENGTH <= view.capacity()) {
+            int bodyLength = view.getInt(readPosition);
+            if (bodyLength <= 0 || readPosition + RECORD_HEADER_LENGTH + bodyLength > view.capacity()) {
+                return;
+            }
+            int crc = view.getInt(readPosition + 4);
+            byte[] body = new byte[bodyLength];
+            view.position(readPosition + RECORD_HEADER_LENGTH);
+            view.get(body);
+            if (crc(body) != crc) {
+                // not yet completely written (or visible). Try again later.
+                return;
+            }
+            readPosition += RECORD_HEADER_LENGTH + bodyLength;
+            readEntry(body, consumer);
+        }
+    }
+
+    /**
+     * Appends the entry (type, selector) -> {@code methodOrException} to the
+     * shared file.
+     */
+    synchronized void append(Class<?> type, String selector, Object methodOrException) throws IOException {
+        byte[] body = recordBody(type, selector, methodOrException);
+        FileLock lock = channel.lock();
+        try {
+            long endOfRecords = buffer.getLong(END_OF_RECORDS_OFFSET);
+            long newEndOfRecords = endOfRecords + RECORD_HEADER_LENGTH + body.length;
+            // keep space for the "0" length marking the end of the records
+            if (newEndOfRecords + 4 > buffer.capacity()) {
+                return;
+            }
+            int position = (int) endOfRecords;
+            buffer.putInt(position + 4, crc(body));
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_LENGTH);
+            view.put(body);
+            buffer.putInt(position, body.length);
+            buffer.putLong(END_OF_RECORDS_OFFSET, newEndOfRecords);
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released when the buffer is garbage collected
+        channel.close();
+    }
+
+    private static byte[] recordBody(Class<?> type, String selector, Object methodOrException) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(type.getName());
+        out.writeLong(ClassFingerprint.of(type));
+        out.writeUTF(selector);
+        if (methodOrException instanceof Method) {
+            Method method = (Method) methodOrException;
+            out.writeByte(KIND_METHOD);
+            out.writeUTF(method.getName());
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            out.writeShort(parameterTypes.length);
+            for (Class<?> parameterType : parameterTypes) {
+                out.writeUTF(parameterType.getName());
+            }
+        } else {
+            out.writeByte(KIND_NO_SUCH_METHOD);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void readEntry(byte[] body, EntryConsumer consumer) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            String className = in.readUTF();
+            long fingerprint = in.readLong();
+            String selector = in.readUTF();
+            byte kind = in.readByte();
+
+            MethodMapBlock block = blocks.computeIfAbsent(className + "#" + fingerprint,
+                    k -> new MethodMapBlock(className, fingerprint));
+            MethodMapEntry entry;
+            if (kind == KIND_METHOD) {
+                String methodName = in.readUTF();
+                String[] parameterTypeNames = new String[in.readShort()];
+                for (int i = 0; i < parameterTypeNames.length; i++) {
+                    parameterTypeNames[i] = in.readUTF();
+                }
+                entry = MethodMapEntry.newMethodEntry(block, selector, methodName, parameterTypeNames);
+            } else {
+                entry = MethodMapEntry.newNoSuchMethodEntry(block, selector, 0, 0, 0);
+            }
+            consumer.accept(ClassNames.forName(className), entry);
+        } catch (IOException | ClassNotFoundException e) {
+            // a record we cannot use (e.g. a class not available in this
+            // process). Skip it.
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        // never 0, so a record with "crc 0" is always incomplete
+        return (int) crc.getValue() | 1;
+    }
+}
@@ -0,0 +1,148 @@
+package org.abego.lab.perform.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A method found by a "super" lookup, i.e. a lookup starting at a given
+ * class, invoked non-virtually (like {@code invokespecial}): the receiver's
+ * overrides of the method are not called.
+ * <p>
+ * The invoker is a MethodHandle created with {@code unreflectSpecial},
+ * using the start class as the "special caller". When the start class is
+ * not accessible this way (e.g. a class of the JDK, like {@code Object})
+ * the subclass of the start class the receiver is an instance of (i.e. the
+ * class containing the "super" send) is used as the special caller
+ * instead, with one invoker per receiver class.
+ */
+final class SuperMethod {
+    private final Class<?> startClass;
+    private final Method method;
+    /**
+     * The invoker for all receivers, or {@code null} when the start class is
+     * not accessible.
+     */
+    private final MethodHandle invoker;
+    /**
+     * (receiver class -> invoker), only used when {@code invoker} is
+     * {@code null}.
+     */
+    private final Map<Class<?>, MethodHandle> receiverClassToInvoker = new ConcurrentHashMap<>();
+
+    SuperMethod(Class<?> startClass, Method method) {
+        this.startClass = startClass;
+        this.method = method;
+        this.invoker = newInvoker(method, startClass);
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Invokes the method for the {@code receiver} (an instance of the start
+     * class) with the {@code arguments}, non-virtually.
+     *
+     * @throws InvocationTargetException when the method throws an exception
+     */
+    Object invoke(Object receiver, Object[] arguments) throws InvocationTargetException {
+        MethodHandle h = invoker != null ? invoker : invokerForReceiverClass(receiver.getClass());
+        try {
+            return (Object) h.invokeExact(receiver, arguments);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private MethodHandle invokerForReceiverClass(Class<?> receiverClass) {
+        MethodHandle result = receiverClassToInvoker.get(receiverClass);
+        if (result == null) {
+            // invokespecial looks up the method starting at the superclass
+            // of the special caller, i.e. at the start class.
+            Class<?> specialCaller = receiverClass;
+            while (specialCaller != null && specialCaller.getSuperclass() != startClass) {
+                specialCaller = specialCaller.getSuperclass();
+            }
+            result = specialCaller != null
+                    ? newInvoker(method, specialCaller)
+                    // the receiver is an instance of the start class itself,
+                    // so a virtual call invokes the method, too.
+                    : newVirtualInvoker(method);
+            if (result == null) {
+                throw new PerformException(String.format(
+                        "Cannot invoke %s non-virtually (start class %s, receiver class %s)",
+                        method, startClass.getName(), receiverClass.getName()));
+            }
+            receiverClassToInvoker.put(receiverClass, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a {@code (Object receiver, Object[] arguments)Object} handle
+     * invoking {@code method} non-virtually, as if called from
+     * {@code specialCaller}, or {@code null} when {@code specialCaller} is not
+     * accessible.
+     */
+    private static MethodHandle newInvoker(Method method, Class<?> specialCaller) {
+        MethodHandles.Lookup lookup = privateLookupIn(specialCaller);
+        if (lookup == null) {
+            return null;
+        }
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflectSpecial(method, specialCaller);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return toInvoker(handle, method);
+    }
+
+    private static MethodHandle newVirtualInvoker(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return toInvoker(handle, method);
+    }
+
+    private static MethodHandle toInvoker(MethodHandle handle, Method method) {
+        return handle.asType(handle.type().generic())
+                .asSpreader(Object[].class, method.getParameterCount());
+    }
+
+    /**
+     * Returns a lookup with private access to {@code type}, or {@code null}
+     * when the type is not accessible.
+     * <p>
+     * Uses {@code MethodHandles.privateLookupIn} (Java 9+) when available,
+     * else the private constructor of {@code Lookup} (Java 8).
+     */
+    private static MethodHandles.Lookup privateLookupIn(Class<?> type) {
+        try {
+            Method privateLookupIn = MethodHandles.class.getMethod(
+                    "privateLookupIn", Class.class, MethodHandles.Lookup.class);
+            return (MethodHandles.Lookup) privateLookupIn.invoke(null, type, MethodHandles.lookup());
+        } catch (NoSuchMethodException e) {
+            // Java 8
+            try {
+                Constructor<MethodHandles.Lookup> constructor =
+                        MethodHandles.Lookup.class.getDeclaredConstructor(Class.class);
+                constructor.setAccessible(true);
+                return constructor.newInstance(type);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return null;
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // e.g. a class in a module not open to us
+            return null;
+        }
+    }
+}
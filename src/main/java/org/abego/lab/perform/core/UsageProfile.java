@@ -0,0 +1,93 @@
+package org.abego.lab.perform.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how the entries of a method map are used during a run: the order
+ * in which the (class, selector) combinations were used the first time and
+ * how often they were used.
+ * <p>
+ * Also remembers for how many consecutive runs before this run the entries
+ * of a loaded method map were unused, to decide what entries to prune when
+ * saving the method map again.
+ */
+final class UsageProfile {
+    /**
+     * The usage of one (class, selector) combination.
+     */
+    static final class EntryUsage {
+        /**
+         * The position of this entry in the "first use" order, starting at 1.
+         */
+        final int firstUse;
+        /**
+         * The number of lookups of this entry.
+         * <p>
+         * For performance reasons the counter is not synchronized, i.e. some
+         * hits may be lost when several threads use the same entry. This is
+         * good enough for a profile.
+         */
+        long hitCount;
+
+        EntryUsage(int firstUse) {
+            this.firstUse = firstUse;
+        }
+    }
+
+    private final Map<Class<?>, Map<String, EntryUsage>> usages = new ConcurrentHashMap<>();
+    private final AtomicInteger lastFirstUse = new AtomicInteger();
+    /**
+     * (class, selector) -> unused runs, only for entries with unused runs.
+     */
+    private final Map<Class<?>, Map<String, Integer>> previousUnusedRuns = new ConcurrentHashMap<>();
+
+    void recordHit(Class<?> type, String selector) {
+        Map<String, EntryUsage> selectorToUsage = usages.get(type);
+        if (selectorToUsage == null) {
+            selectorToUsage = usages.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        }
+        EntryUsage usage = selectorToUsage.get(selector);
+        if (usage == null) {
+            usage = selectorToUsage.computeIfAbsent(selector,
+                    s -> new EntryUsage(lastFirstUse.incrementAndGet()));
+        }
+        usage.hitCount++;
+    }
+
+    /**
+     * Returns the usage of the (type, selector) combination, or {@code null}
+     * when it was not used.
+     */
+    EntryUsage getUsage(Class<?> type, String selector) {
+        Map<String, EntryUsage> selectorToUsage = usages.get(type);
+        return selectorToUsage != null ? selectorToUsage.get(selector) : null;
+    }
+
+    /**
+     * Records that the (type, selector) entry of a loaded method map was not
+     * used in the last {@code unusedRuns} runs.
+     */
+    void recordPreviousUnusedRuns(Class<?> type, String selector, int unusedRuns) {
+        if (unusedRuns > 0) {
+            previousUnusedRuns.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                    .put(selector, unusedRuns);
+        }
+    }
+
+    /**
+     * Returns the number of consecutive runs, up to and including this run,
+     * that did not use the (type, selector) entry, i.e. 0 when the entry was
+     * used at least {@code minHitCount} times in this run.
+     */
+    int getUnusedRuns(Class<?> type, String selector, long minHitCount) {
+        EntryUsage usage = getUsage(type, selector);
+        if (usage != null && usage.hitCount >= minHitCount) {
+            return 0;
+        }
+        Map<String, Integer> selectorToUnusedRuns = previousUnusedRuns.get(type);
+        Integer unusedRuns = selectorToUnusedRuns != null ? selectorToUnusedRuns.get(selector) : null;
+        return (unusedRuns != null ? unusedRuns : 0) + 1;
+    }
+}
@@ -0,0 +1,141 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.BigSample;
+import org.abego.lab.perform.bigsample.C0;
+import org.abego.lab.perform.sample.A;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ClassListExporterTest {
+    private static final int STARTUP_REPEAT_COUNT = 3;
+
+    @Test
+    void exportClassList(@TempDir File tempDir) throws IOException {
+        String methodMap = new File(tempDir, "methodMap").getAbsolutePath();
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(methodMap + ".methods"))) {
+            MethodMapFile.write(out, Arrays.asList(
+                    new MethodMapBlock("org.abego.X", 1, Arrays.asList(
+                            MethodMapEntry.newMethodEntry(null, "a", "a",
+                                    new String[]{"int", "java.lang.String", "[Ljava.lang.Object;"}),
+                            MethodMapEntry.newNoSuchMethodEntry("b"))),
+                    new MethodMapBlock("Y", 2, Collections.singletonList(
+                            MethodMapEntry.newMethodEntry(null, "y", "y",
+                                    new String[]{"org.abego.X", "Z"})))), 0);
+        }
+
+        StringWriter sw = new StringWriter();
+        ClassListExporter.exportClassList(sw, Collections.singletonList(methodMap));
+
+        assertEquals("org/abego/X\nY\njava/lang/String\nZ\n", sw.toString());
+    }
+
+    /**
+     * Compare the time from the JVM start to the first perform (after
+     * loading the big sample method map) with and without a CDS archive
+     * built from the class list of the method map.
+     */
+    @Test
+    void startupWithCdsArchive_bigSample(@TempDir File tempDir)
+            throws IOException, URISyntaxException, InterruptedException {
+        String methodMap = new File(tempDir, "methodMap").getAbsolutePath();
+        String classList = new File(tempDir, "classes.lst").getAbsolutePath();
+        String archive = new File(tempDir, "app.jsa").getAbsolutePath();
+        // CDS only archives classes loaded from JAR files
+        String classPath = new File(tempDir, "app.jar").getAbsolutePath();
+
+        MethodMapGenerator.generate(methodMap,
+                Collections.singletonList(classesDirectory(A.class)),
+                Collections.singletonList(C0.class.getPackage().getName()));
+        ClassListExporter.main(new String[]{classList, methodMap});
+        assertTrue(Files.readAllLines(Paths.get(classList)).size() >= BigSample.CLASS_COUNT);
+        writeJar(classPath, classesDirectory(Performer.class), classesDirectory(A.class));
+
+        try {
+            CdsArchiveBuilder.buildArchive(classList, archive, classPath);
+        } catch (IOException e) {
+            System.out.println("CDS archive not supported: " + e.getMessage());
+            assumeTrue(false, "CDS archive not supported");
+        }
+
+        for (int i = 0; i < STARTUP_REPEAT_COUNT; i++) {
+            System.out.println("timeToFirstPerform_withoutCdsArchive_bigSample: " +
+                    timeToFirstPerformMillis(classPath, methodMap) + " ms");
+            System.out.println("timeToFirstPerform_withCdsArchive_bigSample: " +
+                    timeToFirstPerformMillis(classPath, methodMap,
+                            "-XX:SharedArchiveFile=" + archive) + " ms");
+        }
+    }
+
+    private static long timeToFirstPerformMillis(
+            String classPath, String methodMap, String... jvmOptions)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(CdsArchiveBuilder.javaExecutable());
+        command.addAll(Arrays.asList(jvmOptions));
+        command.addAll(Arrays.asList(
+                "-cp", classPath, StartupBenchmarkMain.class.getName(), methodMap));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+                if (line.startsWith(StartupBenchmarkMain.RESULT_PREFIX)) {
+                    result = line.substring(StartupBenchmarkMain.RESULT_PREFIX.length());
+                }
+            }
+        }
+        assertEquals(0, process.waitFor(), output::toString);
+        assertNotNull(result, output::toString);
+        return Long.parseLong(result);
+    }
+
+    private static void writeJar(String jarFilePath, String... classesDirectories) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(Paths.get(jarFilePath)))) {
+            for (String classesDirectory : classesDirectories) {
+                Path root = Paths.get(classesDirectory);
+                List<Path> files;
+                try (Stream<Path> paths = Files.walk(root)) {
+                    files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    out.putNextEntry(new JarEntry(root.relativize(file).toString().replace('\\', '/')));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    private static String classesDirectory(Class<?> type) throws URISyntaxException {
+        return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+}
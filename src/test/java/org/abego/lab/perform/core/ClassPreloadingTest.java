@@ -0,0 +1,135 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.BigSample;
+import org.abego.lab.perform.sample.A;
+import org.abego.lab.perform.sample.C;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassPreloadingTest {
+    private static final int RUN_REPEAT_COUNT = 2;
+
+    @BeforeEach
+    void setUp() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Performer.setClassPreloadThreadCount(0);
+        Performer.setClassPreloadInitialization(false);
+        Performer.setUsageProfilingEnabled(false);
+        Performer.setMethodMapFormat(MethodMapFormat.OBJECT_STREAMS);
+    }
+
+    @Test
+    void loadMethods_withClassPreloading(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String methodMapFilePath = new File(tempDir, "methodMap").getAbsolutePath();
+        Performer.setMemoizationEnabled(true);
+        Performer.setUsageProfilingEnabled(true);
+        performSomeSampleMethods();
+        Performer.saveMethods(methodMapFilePath);
+        String expectedDump = dumpMethods();
+
+        for (boolean initialize : new boolean[]{false, true}) {
+            for (boolean lazy : new boolean[]{false, true}) {
+                Performer.setClassPreloadThreadCount(3);
+                Performer.setClassPreloadInitialization(initialize);
+                if (lazy) {
+                    Performer.loadMethodsLazy(methodMapFilePath);
+                } else {
+                    Performer.loadMethods(methodMapFilePath);
+                }
+                long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+                performSomeSampleMethods();
+
+                assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+                assertEquals(expectedDump, dumpMethods());
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> Performer.setClassPreloadThreadCount(-1));
+    }
+
+    /**
+     * Compare the time to load the big sample method map and run the big
+     * sample, in a new JVM, with the classes loaded on demand and preloaded
+     * in parallel.
+     */
+    @Test
+    void afterLoadMethods_withClassPreloading_bigSample(@TempDir File tempDir)
+            throws IOException, InterruptedException {
+        String methodMapFilePath = new File(tempDir, "methodMap").getAbsolutePath();
+        Performer.setMemoizationEnabled(true);
+        Performer.setUsageProfilingEnabled(true);
+        BigSample.main(new String[0]);
+        Performer.saveMethods(methodMapFilePath);
+        String threadCount = Integer.toString(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        for (int i = 0; i < RUN_REPEAT_COUNT; i++) {
+            System.out.println("afterLoadMethods_onDemand_bigSample: " +
+                    afterLoadMethodsMillis(methodMapFilePath, "0") + " ms");
+            System.out.println("afterLoadMethods_classPreloading_bigSample: " +
+                    afterLoadMethodsMillis(methodMapFilePath, threadCount) + " ms");
+            System.out.println("afterLoadMethods_classPreloadingWithInitialization_bigSample: " +
+                    afterLoadMethodsMillis(methodMapFilePath, threadCount, "true") + " ms");
+        }
+    }
+
+    private static void performSomeSampleMethods() {
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals("only in C", Performer.perform(new C(), "onlyInC"));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new A(), "foo"));
+    }
+
+    private static String dumpMethods() throws IOException {
+        StringWriter sw = new StringWriter();
+        Performer.dumpMethods(sw);
+        return sw.toString();
+    }
+
+    private static long afterLoadMethodsMillis(String methodMapFilePath, String... options)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                CdsArchiveBuilder.javaExecutable(),
+                "-cp", System.getProperty("java.class.path"),
+                StartupBenchmarkMain.class.getName(),
+                methodMapFilePath));
+        command.addAll(Arrays.asList(options));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+                if (line.startsWith(StartupBenchmarkMain.RUN_RESULT_PREFIX)) {
+                    result = line.substring(StartupBenchmarkMain.RUN_RESULT_PREFIX.length());
+                }
+            }
+        }
+        assertEquals(0, process.waitFor(), output::toString);
+        assertNotNull(result, output::toString);
+        return Long.parseLong(result);
+    }
+}
@@ -0,0 +1,137 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.sample.A;
+import org.abego.lab.perform.sample.C;
+import org.abego.lab.perform.sample.Dictionary;
+import org.abego.lab.perform.sample.Order;
+import org.abego.lab.perform.sample.Recorder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionTest {
+    private static final int EVALUATE_REPEAT_COUNT = 100_000;
+
+    @BeforeEach
+    void setUp() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Performer.setMemoizationEnabled(false);
+    }
+
+    @Test
+    void evaluate() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            assertEquals("Berlin", Expression.compile("order customer address city", "order")
+                    .evaluate(new Order("Berlin", 3)));
+            // unary before binary before keyword sends
+            Expression maxExpression = Expression.compile("x + 3 max: y", "x", "y");
+            assertEquals(7, maxExpression.evaluate(4, 5));
+            assertEquals(9, maxExpression.evaluate(4, 9));
+            assertEquals(5.5, maxExpression.evaluate(2.5, 1.0));
+            assertEquals(20, Expression.compile("x + 3 * 4", "x").evaluate(2));
+            assertEquals(14, Expression.compile("x + (3 * 4)", "x").evaluate(2));
+            assertEquals(6, Expression.compile("order quantity * 2 + order customer address city size",
+                    "order").evaluate(new Order("Rome", 1)));
+
+            Dictionary dictionary = new Dictionary();
+            assertEquals("one", Expression.compile("d at: 1 put: 'one'", "d").evaluate(dictionary));
+            assertEquals("one", Expression.compile("d at: 2 - 1", "d").evaluate(dictionary));
+            assertEquals("Dictionary->it's", Expression.compile("d -> 'it''s'", "d").evaluate(dictionary));
+            for (String source : new String[]{"d << -1", "d << 2.5", "d << true", "d << false"}) {
+                Expression.compile(source, "d").evaluate(dictionary);
+            }
+            assertEquals(Arrays.asList(-1, 2.5, true, false, null),
+                    Expression.compile("d << nil", "d").evaluate(dictionary));
+            assertEquals(5_000_000_000L, Expression.compile("5000000000").evaluate());
+
+            assertEquals("recorded foo:bar:", Expression.compile("r foo: 1 bar: 2", "r").evaluate(new Recorder()));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> Expression.compile("c onlyInC", "c").evaluate(new A()));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> Expression.compile("nil foo").evaluate());
+        }
+    }
+
+    @Test
+    void compile_invalidExpressions() {
+        assertEquals(Arrays.asList("x", "y"), Expression.compile("x", "x", "y").getVariableNames());
+        assertEquals("x + 1", Expression.compile("x + 1", "x").getSource());
+
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("x +", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("(x + 1", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("x)", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("'abc", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("at: 1"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("99999999999999999999"));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Expression.compile("x + y", "x"));
+        assertEquals("Undefined variable 'y' at position 4 in 'x + y'", e.getMessage());
+        // the number of values must match the variables
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("x", "x").evaluate());
+    }
+
+    @Test
+    void evaluate_sendsUseInlineCaches() {
+        Performer.setMemoizationEnabled(true);
+        Expression expression = Expression.compile("c onlyInA size + c toString size", "c");
+        C c = new C();
+        assertEquals(12, expression.evaluate(c));
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(12, expression.evaluate(c));
+        }
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        // the cached methods are dropped when an extension changes them
+        try {
+            Performer.addExtension(A.class, "onlyInA", (receiver, arguments) -> "x");
+            assertEquals(4, expression.evaluate(c));
+        } finally {
+            Performer.removeExtension(A.class, "onlyInA");
+        }
+        assertEquals(12, expression.evaluate(c));
+    }
+
+    @Test
+    void evaluate_comparedToCompileAndEvaluate() {
+        Performer.setMemoizationEnabled(true);
+        Order order = new Order("Berlin", 3);
+        String source = "order customer address city size + order quantity max: 5";
+        Expression expression = Expression.compile(source, "order");
+        // warm up both paths
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(9, expression.evaluate(order));
+            assertEquals(9, Expression.compile(source, "order").evaluate(order));
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < EVALUATE_REPEAT_COUNT; i++) {
+            Expression.compile(source, "order").evaluate(order);
+        }
+        printDuration(startTime, System.nanoTime(), "evaluate_comparedToCompileAndEvaluate (compile and evaluate)");
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < EVALUATE_REPEAT_COUNT; i++) {
+            expression.evaluate(order);
+        }
+        printDuration(startTime, System.nanoTime(), "evaluate_comparedToCompileAndEvaluate (evaluate)");
+    }
+
+    private void printDuration(long startTime, long endTime, String testName) {
+        System.out.println(testName + ": " + ((endTime - startTime + 500) / 1000) / 1000.0 + " ms");
+    }
+}
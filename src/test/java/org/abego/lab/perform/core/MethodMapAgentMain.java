@@ -0,0 +1,41 @@
+package org.abego.lab.perform.core;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Run in a separate JVM with the {@link MethodMapAgent} by
+ * {@link MethodMapAgentTest}.
+ * <p>
+ * Arguments: classCount
+ * <p>
+ * Loads the first classCount big sample classes, waits until the agent
+ * resolved their entries, then performs all their methods and prints how
+ * often the original getMethod was called.
+ */
+final class MethodMapAgentMain {
+    static final String RESULT_PREFIX = "originalGetMethodCallCount=";
+
+    public static void main(String[] args) throws ReflectiveOperationException, InterruptedException {
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+
+        int classCount = Integer.parseInt(args[0]);
+        Class<?>[] types = new Class<?>[classCount];
+        for (int i = 0; i < classCount; i++) {
+            types[i] = Class.forName("org.abego.lab.perform.bigsample.C" + i);
+        }
+        MethodMapAgent.awaitResolved();
+
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        for (Class<?> type : types) {
+            Object instance = type.getConstructor().newInstance();
+            try {
+                type.getMethod("performAllMethods").invoke(instance);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        System.out.println(RESULT_PREFIX +
+                (Performer.getOriginalGetMethodCallCount() - originalGetMethodCallCount));
+    }
+}
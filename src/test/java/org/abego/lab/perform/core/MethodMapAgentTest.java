@@ -0,0 +1,94 @@
+package org.abego.lab.perform.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MethodMapAgentTest {
+    private static final int CLASS_COUNT = 100;
+
+    @AfterEach
+    void tearDown() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setMethodMapFormat(MethodMapFormat.OBJECT_STREAMS);
+    }
+
+    /**
+     * The agent resolves the entries of the classes in the method map when
+     * the classes are defined, i.e. the application needs no original
+     * getMethod call, without loading the method map itself.
+     */
+    @Test
+    void agentResolvesMethodsOfDefinedClasses(@TempDir File tempDir)
+            throws IOException, InterruptedException, ReflectiveOperationException {
+        String methodMapFilePath = new File(tempDir, "methodMap").getAbsolutePath();
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            Class<?> type = Class.forName("org.abego.lab.perform.bigsample.C" + i);
+            try {
+                type.getMethod("performAllMethods").invoke(type.getConstructor().newInstance());
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        Performer.saveMethods(methodMapFilePath);
+        String agentJar = new File(tempDir, "agent.jar").getAbsolutePath();
+        writeAgentJar(agentJar);
+
+        List<String> command = Arrays.asList(
+                CdsArchiveBuilder.javaExecutable(),
+                "-javaagent:" + agentJar + "=" + methodMapFilePath,
+                "-cp", System.getProperty("java.class.path"),
+                MethodMapAgentMain.class.getName(),
+                Integer.toString(CLASS_COUNT));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+                if (line.startsWith(MethodMapAgentMain.RESULT_PREFIX)) {
+                    result = line.substring(MethodMapAgentMain.RESULT_PREFIX.length());
+                }
+            }
+        }
+        assertEquals(0, process.waitFor(), output::toString);
+        assertEquals("0", result, output::toString);
+    }
+
+    /**
+     * Writes a jar only containing the manifest defining the agent, the
+     * agent class itself is found on the class path.
+     */
+    private static void writeAgentJar(String jarFilePath) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Premain-Class"), MethodMapAgent.class.getName());
+        //noinspection EmptyTryBlock
+        try (JarOutputStream ignored = new JarOutputStream(
+                Files.newOutputStream(Paths.get(jarFilePath)), manifest)) {
+            // nothing but the manifest
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.C0;
+import org.abego.lab.perform.sample.A;
+import org.abego.lab.perform.sample.B;
+import org.abego.lab.perform.sample.C;
+import org.abego.lab.perform.sample.E;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MethodMapGeneratorTest {
+    private static final String SAMPLE_PACKAGE = "org.abego.lab.perform.sample";
+
+    @BeforeEach
+    void setUp() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMethodMapCompressionLevel(0);
+    }
+
+    /**
+     * The fingerprints calculated from the class files must match the ones
+     * calculated from the loaded classes, otherwise all blocks would be
+     * dropped as "stale" when loading the generated method map.
+     */
+    @Test
+    void generate_fingerprintsMatchLoadedClasses(@TempDir File tempDir)
+            throws IOException, URISyntaxException, ClassNotFoundException {
+        String generated = new File(tempDir, "generated").getAbsolutePath();
+
+        MethodMapGenerator.generate(generated,
+                Arrays.asList(classesDirectory(Performer.class), classesDirectory(A.class)),
+                Collections.emptyList());
+
+        List<MethodMapBlock> blocks = read(generated);
+        assertTrue(blocks.size() > 5000);
+        for (MethodMapBlock block : blocks) {
+            Class<?> type = ClassNames.forName(block.getClassName());
+            assertEquals(ClassFingerprint.of(type), block.getFingerprint(), block.getClassName());
+        }
+    }
+
+    @Test
+    void main_generatesMethodMapUsedWithoutOriginalGetMethod(@TempDir File tempDir)
+            throws IOException, URISyntaxException, ClassNotFoundException, NoSuchMethodException {
+        String generated = new File(tempDir, "generated").getAbsolutePath();
+
+        MethodMapGenerator.main(new String[]{
+                "-package", SAMPLE_PACKAGE, generated, classesDirectory(A.class)});
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            if (lazy) {
+                Performer.loadMethodsLazy(generated);
+            } else {
+                Performer.loadMethods(generated);
+            }
+            assertSampleMethodsPerformedFromMethodMap();
+            // classes outside the package are not included
+            long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+            assertEquals("C0#m0()", Performer.perform(new C0(), "m0"));
+            assertEquals(originalGetMethodCallCount + 1, Performer.getOriginalGetMethodCallCount());
+        }
+    }
+
+    @Test
+    void loadMethodsFromResource(@TempDir File tempDir) throws IOException, URISyntaxException {
+        String resourcePath = "org/abego/lab/perform/sample/methods";
+        MethodMapGenerator.generate(new File(tempDir, resourcePath).getAbsolutePath(),
+                Collections.singletonList(classesDirectory(A.class)),
+                Collections.singletonList(SAMPLE_PACKAGE));
+
+        Thread thread = Thread.currentThread();
+        ClassLoader oldContextClassLoader = thread.getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(
+                new URL[]{tempDir.toURI().toURL()}, oldContextClassLoader)) {
+            thread.setContextClassLoader(classLoader);
+
+            Performer.loadMethodsFromResource(resourcePath);
+            assertSampleMethodsPerformedFromMethodMap();
+
+            Performer.loadMethodsFromResourceLazy(resourcePath);
+            assertSampleMethodsPerformedFromMethodMap();
+
+            assertThrows(FileNotFoundException.class,
+                    () -> Performer.loadMethodsFromResource("no/such/methods"));
+        } finally {
+            thread.setContextClassLoader(oldContextClassLoader);
+        }
+    }
+
+    private static void assertSampleMethodsPerformedFromMethodMap() {
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals("only in A", Performer.perform(new B(), "onlyInA"));
+        assertEquals("only in C", Performer.perform(new E(), "onlyInC"));
+        assertEquals("E: in C (& E)", Performer.perform(new E(), "inCAndE"));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        assertEquals(7, Performer.perform(new C(), "plus", 3, 4));
+
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    private static String classesDirectory(Class<?> type) throws URISyntaxException {
+        return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    private static List<MethodMapBlock> read(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(filePath + ".methods"))) {
+            return MethodMapFile.read(in);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.C0;
+import org.abego.lab.perform.sample.A;
+import org.abego.lab.perform.sample.C;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MethodMapMergerTest {
+
+    @BeforeEach
+    void setUp() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMethodMapCompressionLevel(0);
+    }
+
+    @Test
+    void merge_containsUnionOfAllRuns(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String run1 = path(tempDir, "run1");
+        String run2 = path(tempDir, "run2");
+        String merged = path(tempDir, "merged");
+
+        Performer.setMemoizationEnabled(true);
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        Performer.saveMethods(run1);
+
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        new C0().performAllMethods();
+        Performer.saveMethods(run2);
+
+        MethodMapMerger.main(new String[]{merged, run1, run2});
+
+        Performer.loadMethods(merged);
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        new C0().performAllMethods();
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    @Test
+    void merge_ranksAndResolvesConflicts(@TempDir File tempDir) throws IOException {
+        String run1 = path(tempDir, "run1");
+        String run2 = path(tempDir, "run2");
+        String run3 = path(tempDir, "run3");
+        String merged = path(tempDir, "merged");
+
+        write(run1, block("X", 1, entry("a", "a1"), entry("b", "b1")));
+        write(run2, block("X", 1, entry("a", "a2"), entry("c", "c2")),
+                block("Y", 1, entry("y", "y2")));
+        write(run3, block("X", 1, entry("a", "a2"), entry("c", "c3")),
+                block("Y", 2, entry("y", "y3")),
+                block("Z", 1, entry("z", "z3")));
+
+        MethodMapMerger.merge(merged, Arrays.asList(run1, run2, run3));
+
+        List<MethodMapBlock> blocks = read(merged);
+        // "X.a" is used most often, all other entries on one run each.
+        // On a tie the first run wins ("c2", version 1 of "Y")
+        assertEquals("X:a->a2,b->b1,c->c2|Y:y->y2|Z:z->z3", describe(blocks));
+    }
+
+    @Test
+    void merge_singleInputKeepsEntries(@TempDir File tempDir) throws IOException {
+        String run1 = path(tempDir, "run1");
+        String merged = path(tempDir, "merged");
+        write(run1, block("X", 1, entry("a", "a1")));
+
+        MethodMapMerger.merge(merged, Collections.singletonList(run1));
+
+        assertEquals("X:a->a1", describe(read(merged)));
+    }
+
+    private static String path(File directory, String name) {
+        return new File(directory, name).getAbsolutePath();
+    }
+
+    private static MethodMapEntry entry(String selector, String methodName) {
+        return MethodMapEntry.newMethodEntry(null, selector, methodName, new String[0]);
+    }
+
+    private static MethodMapBlock block(String className, long fingerprint, MethodMapEntry... entries) {
+        return new MethodMapBlock(className, fingerprint, new ArrayList<>(Arrays.asList(entries)));
+    }
+
+    private static void write(String filePath, MethodMapBlock... blocks) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(filePath + ".methods"))) {
+            MethodMapFile.write(out, Arrays.asList(blocks), 0);
+        }
+    }
+
+    private static List<MethodMapBlock> read(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(filePath + ".methods"))) {
+            return MethodMapFile.read(in);
+        }
+    }
+
+    private static String describe(List<MethodMapBlock> blocks) {
+        List<String> result = new ArrayList<>();
+        for (MethodMapBlock block : blocks) {
+            List<String> entries = new ArrayList<>();
+            for (MethodMapEntry entry : block.getEntries()) {
+                entries.add(entry.getSelector() + "->" + entry.getMethodName());
+            }
+            result.add(block.getClassName() + ":" + String.join(",", entries));
+        }
+        return String.join("|", result);
+    }
+}
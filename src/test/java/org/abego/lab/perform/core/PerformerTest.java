@@ -2,22 +2,44 @@ package org.abego.lab.perform.core;
 
 import org.abego.lab.perform.bigsample.BigSample;
 import org.abego.lab.perform.bigsample.C0;
+import org.abego.lab.perform.bigsample.C4999;
 import org.abego.lab.perform.sample.A;
 import org.abego.lab.perform.sample.B;
 import org.abego.lab.perform.sample.C;
 import org.abego.lab.perform.sample.D;
+import org.abego.lab.perform.sample.Decorator;
+import org.abego.lab.perform.sample.Dictionary;
 import org.abego.lab.perform.sample.E;
+import org.abego.lab.perform.sample.Printer;
+import org.abego.lab.perform.sample.Recorder;
+import org.abego.lab.perform.sample.Shape;
+import org.abego.lab.perform.sample.Square;
+import org.abego.lab.perform.sample.Task;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -44,6 +66,14 @@ class PerformerTest {
     void setUp() {
         Performer.setMemoizationEnabled(false);
         Performer.setExtraDelayInOriginalGetMethodInMicros(EXTRA_ORIGINAL_GET_METHOD_DELAY_MICROS);
+        Performer.setMethodMapFormat(MethodMapFormat.OBJECT_STREAMS);
+        Performer.setMethodMapCompressionLevel(0);
+        Performer.setUsageProfilingEnabled(false);
+        Performer.setSelectorPrefillEnabled(false);
+        Performer.setPruneAfterUnusedRuns(0);
+        Performer.setPruneMinHitCount(1);
+        Performer.clearBaseMethods();
+        Performer.setIntrinsicsEnabled(true);
     }
 
     @Test
@@ -116,6 +146,713 @@ class PerformerTest {
         printDuration(startTime, System.nanoTime(), "perform_withMemoization_bigSampleTwice");
     }
 
+    @Test
+    void perform_withSelectorPrefill() {
+        Performer.setMemoizationEnabled(true);
+        Performer.setSelectorPrefillEnabled(true);
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+        C c = new C();
+        assertEquals("only in C", Performer.perform(c, "onlyInC"));
+        assertEquals(originalGetMethodCallCount + 1, Performer.getOriginalGetMethodCallCount());
+
+        // all other (understood) selectors of C are already resolved
+        assertEquals(3, Performer.perform(c, "+", 1, 2));
+        assertEquals(3, Performer.perform(c, "plus", 1, 2));
+        assertEquals("only in A", Performer.perform(c, "onlyInA"));
+        assertEquals("a C", Performer.perform(c, "toString"));
+        assertEquals(originalGetMethodCallCount + 1, Performer.getOriginalGetMethodCallCount());
+
+        // not understood selectors still need the original getMethod
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(c, "foo"));
+        assertEquals(originalGetMethodCallCount + 2, Performer.getOriginalGetMethodCallCount());
+    }
+
+    @Test
+    void perform_binaryAndKeywordSelectors() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            for (boolean prefill : new boolean[]{false, true}) {
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(memoization);
+                Performer.setSelectorPrefillEnabled(prefill);
+
+                Dictionary d = new Dictionary();
+                assertEquals("v", Performer.perform(d, "at:put:", "k", "v"));
+                assertEquals("v", Performer.perform(d, "at:", "k"));
+                assertEquals("v", Performer.perform(d, "at", "k"));
+                assertEquals(Collections.singletonList("x"), Performer.perform(d, "<<", "x"));
+                assertEquals(Arrays.asList("y", "x"), Performer.perform(d, "insert:at:", "y", 0));
+                assertEquals(true, Performer.perform(d, "<=", d));
+                assertEquals("Dictionary->1", Performer.perform(d, "->", 1));
+                assertEquals("Dictionary==>1", Performer.perform(d, "==>", 1));
+
+                // keyword selectors require one parameter per keyword
+                assertThrows(UnsupportedOperationException.class, () -> Performer.perform(d, "size:", 1));
+                assertThrows(UnsupportedOperationException.class, () -> Performer.perform(d, "insert:", 1));
+                // wrong number of arguments
+                IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                        () -> Performer.perform(d, "at:put:", "k"));
+                assertEquals("'at:put:' expects 2 argument(s), got 1", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    void perform_overloadedMethods() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            for (boolean prefill : new boolean[]{false, true}) {
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(memoization);
+                Performer.setSelectorPrefillEnabled(prefill);
+
+                Printer p = new Printer();
+                assertEquals("String", Performer.perform(p, "print:", "abc"));
+                assertEquals("CharSequence", Performer.perform(p, "print:", new StringBuilder()));
+                // no unboxing when a method applies without it
+                assertEquals("Object", Performer.perform(p, "print:", 42));
+                assertEquals("String", Performer.perform(p, "print:", (Object) null));
+                // unboxing and widening, picking the most specific method
+                assertEquals("long", Performer.perform(p, "pad:", 42));
+                assertEquals("long", Performer.perform(p, "pad:", 42L));
+                assertEquals("double", Performer.perform(p, "pad:", 4.2f));
+                assertEquals("Object,Integer", Performer.perform(p, "print:with:", "x", 1));
+                assertEquals("Integer,Object", Performer.perform(p, "print:with:", 1, "x"));
+
+                // not applicable or ambiguous: understood, but not with these arguments
+                IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                        () -> Performer.perform(p, "pad:", "x"));
+                assertEquals("pad:(java.lang.String): not applicable", e.getMessage());
+                e = assertThrows(IllegalArgumentException.class,
+                        () -> Performer.perform(p, "print:with:", 1, 1));
+                assertEquals("print:with:(java.lang.Integer,java.lang.Integer): ambiguous", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    void perform_overloadedMethods_selectionIsMemoizedPerArgumentClasses(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        Printer p = new Printer();
+        assertEquals("String", Performer.perform(p, "print:", "abc"));
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("String", Performer.perform(p, "print:", "abc"));
+            assertEquals("Object", Performer.perform(p, "print:", i));
+        }
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        // overload sets are not saved, but looked up again after loading
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            Performer.setMethodMapFormat(format);
+            Performer.saveMethods(methodMapFilePath);
+            Performer.loadMethods(methodMapFilePath);
+
+            assertEquals("Object", Performer.perform(p, "print:", 1));
+        }
+    }
+
+    public static String greet(A receiver, String name) {
+        return "Hello " + name + " from " + receiver;
+    }
+
+    @Test
+    void addExtension() throws NoSuchMethodException {
+        Method greet = PerformerTest.class.getMethod("greet", A.class, String.class);
+        try {
+            for (boolean memoization : new boolean[]{false, true}) {
+                for (boolean prefill : new boolean[]{false, true}) {
+                    Performer.setMemoizationEnabled(false);
+                    Performer.setMemoizationEnabled(memoization);
+                    Performer.setSelectorPrefillEnabled(prefill);
+
+                    Performer.addExtension(A.class, "onlyInA", (receiver, arguments) -> "extended");
+                    Performer.addExtension(A.class, "toString", (receiver, arguments) -> "extended A");
+                    Performer.addExtension(A.class, "greet:", greet);
+
+                    // precedence over the methods declared or inherited
+                    assertEquals("extended", Performer.perform(new A(), "onlyInA"));
+                    assertEquals("extended", Performer.perform(new C(), "onlyInA"));
+                    assertEquals("extended A", Performer.perform(new A(), "toString"));
+                    // ... but not over methods declared in a subclass
+                    assertEquals("a B", Performer.perform(new B(), "toString"));
+                    assertEquals("a D", Performer.perform(new D(), "toString"));
+                    assertEquals("Hello Bob from a C", Performer.perform(new C(), "greet:", "Bob"));
+
+                    Performer.removeExtension(A.class, "onlyInA");
+                    Performer.removeExtension(A.class, "toString");
+                    Performer.removeExtension(A.class, "greet:");
+
+                    assertEquals("only in A", Performer.perform(new C(), "onlyInA"));
+                    assertEquals("an A", Performer.perform(new A(), "toString"));
+                    assertThrows(UnsupportedOperationException.class,
+                            () -> Performer.perform(new C(), "greet:", "Bob"));
+                }
+            }
+
+            // the static method must match the type and selector
+            Method toString = Object.class.getMethod("toString");
+            assertThrows(IllegalArgumentException.class, () -> Performer.addExtension(A.class, "greet:", toString));
+            assertThrows(IllegalArgumentException.class, () -> Performer.addExtension(A.class, "greet:with:", greet));
+            assertThrows(IllegalArgumentException.class, () -> Performer.addExtension(Object.class, "greet:", greet));
+        } finally {
+            Performer.removeExtension(A.class, "onlyInA");
+            Performer.removeExtension(A.class, "toString");
+            Performer.removeExtension(A.class, "greet:");
+        }
+    }
+
+    @Test
+    void addExtension_invalidatesOnlyEntriesOfSelectorInSubclasses(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        A a = new A();
+        B b = new B();
+        C c = new C();
+        E e = new E();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        try {
+            Performer.perform(a, "onlyInA");
+            Performer.perform(c, "onlyInA");
+            Performer.perform(c, "onlyInC");
+            Performer.perform(e, "toString");
+            Performer.saveMethods(methodMapFilePath);
+            long callCount = Performer.getOriginalGetMethodCallCount();
+
+            Performer.addExtension(B.class, "onlyInA", (receiver, arguments) -> "extended");
+            // entries of other classes and other selectors are kept
+            Performer.perform(a, "onlyInA");
+            Performer.perform(c, "onlyInA");
+            Performer.perform(c, "onlyInC");
+            Performer.perform(e, "toString");
+            assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+            assertEquals("extended", Performer.perform(b, "onlyInA"));
+
+            Performer.addExtension(A.class, "onlyInA", (receiver, arguments) -> "extended A");
+            assertEquals("extended A", Performer.perform(c, "onlyInA"));
+            Performer.perform(c, "onlyInC");
+            assertEquals(callCount + 2, Performer.getOriginalGetMethodCallCount());
+
+            // entries of a method map loaded later do not hide the extension
+            Performer.loadMethods(methodMapFilePath);
+            assertEquals("extended A", Performer.perform(c, "onlyInA"));
+            assertEquals("extended", Performer.perform(b, "onlyInA"));
+        } finally {
+            Performer.removeExtension(A.class, "onlyInA");
+            Performer.removeExtension(B.class, "onlyInA");
+        }
+        assertEquals("only in A", Performer.perform(c, "onlyInA"));
+    }
+
+    @Test
+    void addExtension_baseMethodMapStillUsedInOtherClasses(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        A a = new A();
+        B b = new B();
+        C c = new C();
+        Performer.perform(a, "onlyInA");
+        Performer.perform(c, "onlyInA");
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+
+        // start with an empty method map, on top of the base method map
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        Performer.loadBaseMethods(methodMapFilePath);
+        try {
+            Performer.addExtension(B.class, "onlyInA", (receiver, arguments) -> "extended");
+            long callCount = Performer.getOriginalGetMethodCallCount();
+
+            // classes not extended still use the base method map for the selector
+            assertEquals("only in A", Performer.perform(a, "onlyInA"));
+            assertEquals("only in A", Performer.perform(c, "onlyInA"));
+            assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+            assertEquals("extended", Performer.perform(b, "onlyInA"));
+        } finally {
+            Performer.removeExtension(B.class, "onlyInA");
+            Performer.clearBaseMethods();
+        }
+    }
+
+    @Test
+    void perform_doesNotUnderstand() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            for (boolean prefill : new boolean[]{false, true}) {
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(memoization);
+                Performer.setSelectorPrefillEnabled(prefill);
+
+                Recorder recorder = new Recorder();
+                assertEquals("recorded foo", Performer.perform(recorder, "foo"));
+                assertEquals("recorded at:put:", Performer.perform(recorder, "at:put:", 1, "x"));
+                assertEquals("recorded at:put:", Performer.perform(recorder, "at:put:", 2, "y"));
+                // understood messages are not passed to the handler
+                assertEquals(3, ((List<?>) Performer.perform(recorder, "getMessages")).size());
+                assertEquals(Arrays.asList("foo[]", "at:put:[1, x]", "at:put:[2, y]"), recorder.getMessages());
+
+                // receivers without handler still fail
+                assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new A(), "foo"));
+            }
+        }
+    }
+
+    @Test
+    void perform_doesNotUnderstand_handlerIsMemoizedWithSelector(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        Recorder recorder = new Recorder();
+        Performer.perform(recorder, "foo");
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            Performer.perform(recorder, "foo");
+        }
+        printDuration(startTime, System.nanoTime(), "perform_doesNotUnderstand_handlerIsMemoizedWithSelector");
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        // saved as "not understood" entries
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            Performer.setMethodMapFormat(format);
+            Performer.saveMethods(methodMapFilePath);
+            Performer.loadMethods(methodMapFilePath);
+
+            assertEquals("recorded foo", Performer.perform(recorder, "foo"));
+        }
+    }
+
+    @Test
+    void perform_doesNotUnderstand_viaExtension() {
+        Performer.setMemoizationEnabled(true);
+        A a = new A();
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(a, "foo"));
+        try {
+            Performer.addExtension(A.class, Performer.DOES_NOT_UNDERSTAND_SELECTOR,
+                    (receiver, arguments) -> "handled " + arguments[0]);
+            assertEquals("handled foo[]", Performer.perform(a, "foo"));
+            assertEquals("handled foo[]", Performer.perform(new C(), "foo"));
+        } finally {
+            Performer.removeExtension(A.class, Performer.DOES_NOT_UNDERSTAND_SELECTOR);
+        }
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(a, "foo"));
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new C(), "foo"));
+    }
+
+    @Test
+    void perform_forwardingProxy() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            Decorator decoratedC = new Decorator(new C());
+            assertEquals("only in C", Performer.perform(decoratedC, "onlyInC"));
+            assertEquals("only in C", Performer.perform(decoratedC, "onlyInC"));
+            assertEquals(3, Performer.perform(decoratedC, "+", 1, 2));
+            // understood by the proxy itself
+            assertEquals("decorated a C", Performer.perform(decoratedC, "describe"));
+            // targets of other classes, other proxies, handlers
+            assertEquals("C: in C (& E)", Performer.perform(new Decorator(new C()), "inCAndE"));
+            assertEquals("E: in C (& E)", Performer.perform(new Decorator(new E()), "inCAndE"));
+            assertEquals("only in C", Performer.perform(new Decorator(decoratedC), "onlyInC"));
+            assertEquals("recorded foo", Performer.perform(new Decorator(new Recorder()), "foo"));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> Performer.perform(new Decorator(new A()), "onlyInC"));
+        }
+    }
+
+    @Test
+    void perform_forwardingProxy_learnsTargetMethod() {
+        Performer.setMemoizationEnabled(true);
+        C c = new C();
+        Decorator decoratedC = new Decorator(c);
+        Performer.perform(c, "onlyInC");
+        Performer.perform(decoratedC, "onlyInC");
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            Performer.perform(c, "onlyInC");
+        }
+        printDuration(startTime, System.nanoTime(), "perform_forwardingProxy_learnsTargetMethod (direct)");
+        startTime = System.nanoTime();
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            Performer.perform(decoratedC, "onlyInC");
+        }
+        printDuration(startTime, System.nanoTime(), "perform_forwardingProxy_learnsTargetMethod (proxy)");
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        // an extension of the target class invalidates the learned method
+        try {
+            Performer.addExtension(C.class, "onlyInC", (receiver, arguments) -> "extended");
+            assertEquals("extended", Performer.perform(decoratedC, "onlyInC"));
+        } finally {
+            Performer.removeExtension(C.class, "onlyInC");
+        }
+        assertEquals("only in C", Performer.perform(decoratedC, "onlyInC"));
+    }
+
+    @Test
+    void perform_intrinsics() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            assertEquals(3, Performer.perform(1, "+", 2));
+            assertEquals(3L, Performer.perform(1, "+", 2L));
+            assertEquals(-1.5, Performer.perform(1L, "-", 2.5));
+            assertEquals(Integer.MIN_VALUE, Performer.perform(Integer.MAX_VALUE, "+", 1));
+            assertEquals(3, Performer.perform(7, "/", 2));
+            assertEquals(3.5, Performer.perform(7.0, "/", 2));
+            assertEquals(true, Performer.perform(1, "<", 2L));
+            assertEquals(false, Performer.perform(2.0, "<=", 1));
+            assertEquals(true, Performer.perform(2, "=", 2.0));
+            assertEquals(false, Performer.perform(2, "=", "2"));
+            assertEquals(5L, Performer.perform(3, "max:", 5L));
+            assertEquals(3, Performer.perform(3, "min:", 5L));
+            assertEquals("ab1", Performer.perform("ab", ",", 1));
+            assertEquals(2, Performer.perform("ab", "size"));
+            // methods of the receiver are still available
+            assertEquals("AB", Performer.perform("ab", "toUpperCase"));
+
+            Supplier<String> supplier = () -> "supplied";
+            Function<Integer, Integer> twice = i -> i * 2;
+            Predicate<String> isEmpty = String::isEmpty;
+            BiFunction<Integer, Integer, Integer> sum = Integer::sum;
+            assertEquals("supplied", Performer.perform(supplier, "value"));
+            assertEquals(6, Performer.perform(twice, "value:", 3));
+            assertEquals(true, Performer.perform(isEmpty, "value:", ""));
+            assertEquals(7, Performer.perform(sum, "value:value:", 3, 4));
+
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> Performer.perform(1, "+", "x"));
+            assertEquals("'+' expects an Integer, Long or Double argument, got x", e.getMessage());
+            assertThrows(IllegalArgumentException.class, () -> Performer.perform(twice, "value:"));
+        }
+
+        // without intrinsics Integer does not understand "+"
+        Performer.setIntrinsicsEnabled(false);
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(1, "+", 2));
+    }
+
+    @Test
+    void perform_intrinsics_doNotReplaceMethodsOfInterfaceImplementations() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            Task task = new Task();
+            assertEquals("value of Task", Performer.perform(task, "value"));
+            assertEquals("value of Task", Performer.cascade(task, "value"));
+            assertEquals("value of Task", Cascade.of("value").perform(task));
+            assertEquals(0, task.getRunCount());
+            // the interface intrinsic is used when the class has no method
+            Runnable runnable = task::run;
+            assertNull(Performer.perform(runnable, "value"));
+            assertNull(Cascade.of("value").perform(runnable));
+            assertEquals(2, task.getRunCount());
+        }
+    }
+
+    @Test
+    void addIntrinsic() {
+        Performer.setMemoizationEnabled(true);
+        C c = new C();
+        assertEquals("only in A", Performer.perform(c, "onlyInA"));
+        try {
+            Performer.addIntrinsic(A.class, "onlyInA", (receiver, arguments) -> "intrinsic");
+            Performer.addIntrinsic(CharSequence.class, "first", (receiver, arguments) ->
+                    ((CharSequence) receiver).charAt(0));
+            Performer.addIntrinsic(Integer.class, "+", (receiver, arguments) -> "replaced");
+
+            assertEquals("intrinsic", Performer.perform(c, "onlyInA"));
+            assertEquals('a', Performer.perform("abc", "first"));
+            assertEquals('x', Performer.perform(new StringBuilder("x"), "first"));
+            assertEquals("replaced", Performer.perform(1, "+", 2));
+        } finally {
+            Performer.removeIntrinsic(A.class, "onlyInA");
+            Performer.removeIntrinsic(CharSequence.class, "first");
+            Performer.removeIntrinsic(Integer.class, "+");
+            Performer.addIntrinsic(Integer.class, "+", Intrinsics.withBuiltins().get(Integer.class, "+"));
+        }
+        assertEquals("only in A", Performer.perform(c, "onlyInA"));
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform("abc", "first"));
+        assertEquals(3, Performer.perform(1, "+", 2));
+    }
+
+    @Test
+    void perform_intrinsics_comparedToReflection() {
+        Performer.setMemoizationEnabled(true);
+        Supplier<String> supplier = () -> "supplied";
+        // warm up both paths
+        Performer.perform(supplier, "value");
+        Performer.perform(supplier, "get");
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < LOAD_REPEAT_COUNT; i++) {
+            Performer.perform(supplier, "value");
+        }
+        printDuration(startTime, System.nanoTime(), "perform_intrinsics_comparedToReflection (intrinsic)");
+
+        Performer.setIntrinsicsEnabled(false);
+        startTime = System.nanoTime();
+        for (int i = 0; i < LOAD_REPEAT_COUNT; i++) {
+            Performer.perform(supplier, "get");
+        }
+        printDuration(startTime, System.nanoTime(), "perform_intrinsics_comparedToReflection (reflection)");
+    }
+
+    @Test
+    void performSuper() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            B b = new B();
+            D d = new D();
+            // the method found from the start class, not the override
+            assertEquals("a B", Performer.perform(b, "toString"));
+            assertEquals("an A", Performer.performSuper(b, A.class, "toString"));
+            assertEquals("a C", Performer.performSuper(d, C.class, "toString"));
+            assertEquals("an A", Performer.performSuper(d, A.class, "toString"));
+            assertTrue(((String) Performer.performSuper(d, Object.class, "toString"))
+                    .startsWith(D.class.getName() + "@"));
+            assertEquals(3, Performer.performSuper(d, C.class, "+", 1, 2));
+            assertEquals("recorded foo", Performer.performSuper(new Recorder(), Object.class, "foo"));
+
+            assertThrows(UnsupportedOperationException.class, () -> Performer.performSuper(d, A.class, "onlyInC"));
+            assertThrows(IllegalArgumentException.class, () -> Performer.performSuper(b, C.class, "toString"));
+            assertThrows(IllegalArgumentException.class, () -> Performer.performSuper(d, C.class, "+", 1));
+            PerformException e = assertThrows(PerformException.class,
+                    () -> Performer.performSuper(b, A.class, "throwIllegalAccessException"));
+            assertTrue(e.getCause().getCause() instanceof IllegalAccessException);
+        }
+    }
+
+    @Test
+    void performSuper_isMemoizedPerStartClass() {
+        Performer.setMemoizationEnabled(true);
+        B b = new B();
+        D d = new D();
+        Performer.performSuper(b, A.class, "toString");
+        Performer.perform(b, "toString");
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            Performer.perform(b, "toString");
+        }
+        printDuration(startTime, System.nanoTime(), "performSuper_isMemoizedPerStartClass (perform)");
+        startTime = System.nanoTime();
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            Performer.performSuper(b, A.class, "toString");
+            Performer.performSuper(d, A.class, "toString");
+        }
+        printDuration(startTime, System.nanoTime(), "performSuper_isMemoizedPerStartClass (performSuper)");
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        try {
+            Performer.addExtension(A.class, "toString", (receiver, arguments) -> "extended A");
+            assertEquals("extended A", Performer.performSuper(b, A.class, "toString"));
+            assertEquals("a B", Performer.perform(b, "toString"));
+        } finally {
+            Performer.removeExtension(A.class, "toString");
+        }
+        assertEquals("an A", Performer.performSuper(b, A.class, "toString"));
+    }
+
+    @Test
+    void performSuper_isMemoizedAfterLoadMethods(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.setMemoizationEnabled(true);
+        Performer.perform(new B(), "toString");
+        Performer.saveMethods(methodMapFilePath);
+        Performer.setMemoizationEnabled(false);
+
+        // loading the methods enables the memoization, also for super sends
+        Performer.loadMethods(methodMapFilePath);
+        B b = new B();
+        assertEquals("an A", Performer.performSuper(b, A.class, "toString"));
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            assertEquals("an A", Performer.performSuper(b, A.class, "toString"));
+        }
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    @Test
+    void performClass() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            for (boolean prefill : new boolean[]{false, true}) {
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(memoization);
+                Performer.setSelectorPrefillEnabled(prefill);
+
+                assertEquals("Shape unit", Performer.performClass(Shape.class, "unit"));
+                assertEquals("Square unit", Performer.performClass(Square.class, "unit"));
+                // inherited class-side method
+                assertEquals("Shape named x", Performer.performClass(Square.class, "named:", "x"));
+                // instance-side methods are not understood by the class (and
+                // vice versa)
+                assertEquals("a Shape", Performer.perform(new Square(), "describe"));
+                assertThrows(UnsupportedOperationException.class,
+                        () -> Performer.performClass(Square.class, "describe"));
+                assertThrows(UnsupportedOperationException.class,
+                        () -> Performer.performClass(Square.class, "unit:", 1));
+            }
+        }
+    }
+
+    @Test
+    void cascade() {
+        for (boolean memoization : new boolean[]{false, true}) {
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(memoization);
+
+            assertEquals("a C", Performer.cascade(new C(), "onlyInC", "onlyInA", "toString"));
+            assertNull(Performer.cascade(new C()));
+            Recorder recorder = new Recorder();
+            assertEquals("recorded bar", Performer.cascade(recorder, "foo", "toString", "bar"));
+            assertEquals(Arrays.asList("foo[]", "bar[]"), recorder.getMessages());
+            assertThrows(UnsupportedOperationException.class,
+                    () -> Performer.cascade(new C(), "onlyInC", "onlyInE"));
+
+            Cascade cascade = Cascade.of(
+                    new Message("onlyInA", null),
+                    new Message("+", new Object[]{1, 2}),
+                    new Message("inCAndE", null));
+            assertArrayEquals(new Object[]{"only in A", 3, "C: in C (& E)"}, cascade.performAll(new C()));
+            // the same cascade for a receiver of another class
+            assertEquals("E: in C (& E)", cascade.perform(new E()));
+            assertArrayEquals(new Object[]{"only in A", 3, "C: in C (& E)"}, cascade.performAll(new C()));
+            assertThrows(UnsupportedOperationException.class, () -> cascade.perform(new A()));
+            // intrinsics
+            assertArrayEquals(new Object[]{3, 5},
+                    Cascade.of(new Message("+", new Object[]{2}), new Message("max:", new Object[]{5})).performAll(1));
+        }
+    }
+
+    @Test
+    void cascade_resolvesMethodsOncePerClass(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        Cascade cascade = Cascade.of("onlyInA", "toString");
+        C c = new C();
+        assertEquals("a C", cascade.perform(c));
+        long callCount = Performer.getOriginalGetMethodCallCount();
+
+        for (int i = 0; i < TEST_REPEAT_COUNT; i++) {
+            assertEquals("a C", cascade.perform(c));
+            assertEquals("a C", Performer.cascade(c, "onlyInA", "toString"));
+        }
+        assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+
+        // the cached methods are dropped when an extension changes them
+        try {
+            Performer.addExtension(A.class, "onlyInA", (receiver, arguments) -> "extended");
+            assertArrayEquals(new Object[]{"extended", "a C"}, cascade.performAll(c));
+        } finally {
+            Performer.removeExtension(A.class, "onlyInA");
+        }
+        assertArrayEquals(new Object[]{"only in A", "a C"}, cascade.performAll(c));
+
+        // ... and when a base method map is loaded or cleared
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+        long epoch = Performer.getEpoch();
+        Performer.loadBaseMethods(methodMapFilePath);
+        try {
+            assertNotEquals(epoch, Performer.getEpoch());
+            assertArrayEquals(new Object[]{"only in A", "a C"}, cascade.performAll(c));
+            epoch = Performer.getEpoch();
+        } finally {
+            Performer.clearBaseMethods();
+        }
+        assertNotEquals(epoch, Performer.getEpoch());
+        assertArrayEquals(new Object[]{"only in A", "a C"}, cascade.performAll(c));
+    }
+
+    @Test
+    void cascade_comparedToPerform() {
+        Performer.setMemoizationEnabled(true);
+        String[] selectors = new String[100];
+        for (int i = 0; i < selectors.length; i++) {
+            selectors[i] = "m" + i;
+        }
+        Cascade cascade = Cascade.of(selectors);
+        C0 c0 = new C0();
+        // warm up all paths
+        c0.performAllMethods();
+        Performer.cascade(c0, selectors);
+        cascade.perform(c0);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < LOAD_REPEAT_COUNT; i++) {
+            c0.performAllMethods();
+        }
+        printDuration(startTime, System.nanoTime(), "cascade_comparedToPerform (perform)");
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < LOAD_REPEAT_COUNT; i++) {
+            Performer.cascade(c0, selectors);
+        }
+        printDuration(startTime, System.nanoTime(), "cascade_comparedToPerform (Performer.cascade)");
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < LOAD_REPEAT_COUNT; i++) {
+            cascade.perform(c0);
+        }
+        printDuration(startTime, System.nanoTime(), "cascade_comparedToPerform (Cascade)");
+    }
+
+    @Test
+    void performClass_savedAndLoadedWithMethodMap(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            Performer.setMethodMapFormat(format);
+            Performer.setMemoizationEnabled(false);
+            Performer.setMemoizationEnabled(true);
+            Performer.performClass(Square.class, "unit");
+            Performer.performClass(Square.class, "named:", "x");
+            Performer.perform(new Square(), "describe");
+            Performer.saveMethods(methodMapFilePath);
+
+            for (boolean lazy : new boolean[]{false, true}) {
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(true);
+                if (lazy) {
+                    Performer.loadMethodsLazy(methodMapFilePath);
+                } else {
+                    Performer.loadMethods(methodMapFilePath);
+                }
+                long callCount = Performer.getOriginalGetMethodCallCount();
+
+                assertEquals("Square unit", Performer.performClass(Square.class, "unit"));
+                assertEquals("Shape named y", Performer.performClass(Square.class, "named:", "y"));
+                assertEquals("a Shape", Performer.perform(new Square(), "describe"));
+                assertEquals(callCount, Performer.getOriginalGetMethodCallCount());
+            }
+        }
+    }
+
+    @Test
+    void perform_withSelectorPrefill_bigSample() {
+        setDelayForBigSample();
+        Performer.setMemoizationEnabled(true);
+        Performer.setSelectorPrefillEnabled(true);
+        long startTime = System.nanoTime();
+
+        runBigSample();
+
+        printDuration(startTime, System.nanoTime(), "perform_withSelectorPrefill_bigSample");
+    }
+
     @Test
     void perform_withMemoization_and_saveMethods_smallSampleMultipleTimes(
             @TempDir File tempDir) throws IOException {
@@ -196,6 +933,35 @@ class PerformerTest {
         printDuration(startTime, System.nanoTime(), "loadMethods_bigSample");
     }
 
+    /**
+     * Like {@link #loadMethods_bigSample()}, but with a method map saved in
+     * the test run, for both formats.
+     */
+    @Test
+    void loadMethods_savedBigSample(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMemoizationEnabled(true);
+        runBigSample();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            Performer.setMethodMapFormat(format);
+            Performer.saveMethods(methodMapFilePath);
+            for (int i = 1; i <= 2; i++) {
+                long startTime = System.nanoTime();
+
+                Performer.loadMethods(methodMapFilePath);
+
+                printDuration(startTime, System.nanoTime(), "loadMethods_" + format + "_" + i + "_bigSample");
+                long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+                assertEquals("C0#m0()", Performer.perform(new C0(), "m0"));
+                assertEquals("C4999#m99()", Performer.perform(new C4999(), "m99"));
+                assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+            }
+        }
+    }
+
     @Test
     void loadMethodsLazy_multipleTime_smallSample() throws IOException, ClassNotFoundException, NoSuchMethodException {
         Performer.setMemoizationEnabled(true);
@@ -269,6 +1035,445 @@ class PerformerTest {
         runSmallTestSample();
     }
 
+    @Test
+    void saveAndLoadMethods_blocksFormat(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        runSmallTestSample();
+
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        for (int level : new int[]{0, 1, 9}) {
+            Performer.setMethodMapCompressionLevel(level);
+            Performer.saveMethods(methodMapFilePath);
+
+            Performer.loadMethods(methodMapFilePath);
+            runSmallTestSample();
+
+            // lazy loaded, partly resolved and saved again
+            Performer.loadMethodsLazy(methodMapFilePath);
+            Performer.perform(new A(), "toString");
+            Performer.saveMethods(methodMapFilePath);
+            Performer.loadMethodsLazy(methodMapFilePath);
+            runSmallTestSample();
+
+            StringWriter sw = new StringWriter();
+            Performer.dumpMethods(sw);
+            assertIsSmallTestSampleMethodDump(sw.toString());
+        }
+    }
+
+    @Test
+    void setMethodMapCompressionLevel_invalidLevel() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Performer.setMethodMapCompressionLevel(10));
+    }
+
+    /**
+     * Blocks of classes that changed since the method map was saved (or that
+     * no longer exist) are dropped when loading, all other blocks are reused.
+     */
+    @Test
+    void loadMethods_blocksFormat_dropsBlocksOfChangedClasses(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        writeMethodMapWithStaleBlocks(methodMapFilePath);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            if (lazy) {
+                Performer.loadMethodsLazy(methodMapFilePath);
+            } else {
+                Performer.loadMethods(methodMapFilePath);
+            }
+
+            // the block of class C is valid and is used, even for the
+            // (deliberately wrong) mapping of "onlyInC"
+            assertEquals("C: in C (& E)", Performer.perform(new C(), "onlyInC"));
+            // the stale block of class A is dropped, its selectors are
+            // resolved again
+            assertEquals("only in A", Performer.perform(new A(), "onlyInA"));
+            assertEquals("an A", Performer.perform(new A(), "toString"));
+        }
+    }
+
+    private static void writeMethodMapWithStaleBlocks(String methodMapFilePath) throws IOException {
+        List<MethodMapBlock> blocks = new ArrayList<>();
+        blocks.add(new MethodMapBlock(A.class.getName(), ClassFingerprint.of(A.class) + 1,
+                Arrays.asList(
+                        MethodMapEntry.newMethodEntry(null, "onlyInA", "removedMethod", new String[0]),
+                        MethodMapEntry.newNoSuchMethodEntry("toString"))));
+        blocks.add(new MethodMapBlock("org.abego.lab.perform.sample.Removed", 0,
+                Collections.singletonList(
+                        MethodMapEntry.newMethodEntry(null, "foo", "foo", new String[0]))));
+        blocks.add(new MethodMapBlock(C.class.getName(), ClassFingerprint.of(C.class),
+                Collections.singletonList(
+                        MethodMapEntry.newMethodEntry(null, "onlyInC", "inCAndE", new String[0]))));
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(methodMapFilePath + ".methods"))) {
+            MethodMapFile.write(out, blocks, 0);
+        }
+    }
+
+    @Test
+    void saveAndLoadMethodsSharded(@TempDir File tempDir) throws IOException {
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        runSmallTestSample();
+        new C0().performAllMethods();
+
+        String directoryPath = tempDir.getAbsolutePath();
+        Performer.saveMethodsSharded(directoryPath);
+
+        assertEquals("" +
+                        "org.abego.lab.perform.bigsample\torg.abego.lab.perform.bigsample\n" +
+                        "org.abego.lab.perform.sample\torg.abego.lab.perform.sample\n",
+                readFileText(new File(tempDir, "manifest.txt").getAbsolutePath()));
+        assertTrue(new File(tempDir, "org.abego.lab.perform.sample.methods").isFile());
+        assertTrue(new File(tempDir, "org.abego.lab.perform.bigsample.methods").isFile());
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            if (lazy) {
+                Performer.loadMethodsShardedLazy(directoryPath);
+            } else {
+                Performer.loadMethodsSharded(directoryPath);
+            }
+            long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+            // only the shard of the package "sample" is loaded
+            runSmallTestSample();
+            StringWriter sw = new StringWriter();
+            Performer.dumpMethods(sw);
+            assertIsSmallTestSampleMethodDump(sw.toString());
+
+            // now also the shard of "bigsample" is loaded
+            assertEquals("C0#m99()", Performer.perform(new C0(), "m99"));
+            sw = new StringWriter();
+            Performer.dumpMethods(sw);
+            assertTrue(sw.toString().contains("org.abego.lab.perform.bigsample.C0\tm42\n"));
+
+            assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+        }
+    }
+
+    @Test
+    void saveMethodsShard_keepsOtherShards(@TempDir File tempDir) throws IOException {
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        new C0().performAllMethods();
+        String directoryPath = tempDir.getAbsolutePath();
+        Performer.saveMethodsSharded(directoryPath);
+
+        // regenerate the shard of package "sample" only
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        runSmallTestSample();
+        Performer.saveMethodsShard(directoryPath, "org.abego.lab.perform.sample");
+
+        Performer.loadMethodsSharded(directoryPath);
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        runSmallTestSample();
+        assertEquals("C0#m0()", Performer.perform(new C0(), "m0"));
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    /**
+     * Compare the file size and the save and load times of the big sample
+     * method map for various compression levels.
+     */
+    @Test
+    void loadMethods_blocksFormat_compressed_bigSample(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        runBigSample();
+
+        for (int level : new int[]{0, 1, 6, 9}) {
+            Performer.setMethodMapCompressionLevel(level);
+            String methodMapFilePath = new File(tempDir, "methodMap-" + level).getAbsolutePath();
+            String name = "blocksFormat_compressionLevel" + level + "_bigSample";
+
+            long startTime = System.nanoTime();
+            Performer.saveMethods(methodMapFilePath);
+            printDuration(startTime, System.nanoTime(), "saveMethods_" + name);
+            System.out.println("fileSize_" + name + ": " +
+                    new File(methodMapFilePath + ".methods").length() + " bytes");
+
+            startTime = System.nanoTime();
+            Performer.loadMethods(methodMapFilePath);
+            printDuration(startTime, System.nanoTime(), "loadMethods_" + name);
+
+            startTime = System.nanoTime();
+            Performer.loadMethodsLazy(methodMapFilePath);
+            printDuration(startTime, System.nanoTime(), "loadMethodsLazy_" + name);
+
+            assertEquals("C0#m0()", Performer.perform(new C0(), "m0"));
+        }
+    }
+
+    @Test
+    void saveMethods_withUsageProfiling_writesHotEntriesFirst(@TempDir File tempDir) throws IOException {
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        Performer.setUsageProfilingEnabled(true);
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals("only in A", Performer.perform(new A(), "onlyInA"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        }
+
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+
+        List<MethodMapBlock> blocks;
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(methodMapFilePath + ".methods"))) {
+            blocks = MethodMapFile.read(in);
+        }
+        assertEquals(2, blocks.size());
+        MethodMapEntry hottest = blocks.get(0).getEntries().get(0);
+        assertEquals(C.class.getName(), blocks.get(0).getClassName());
+        assertEquals("+", hottest.getSelector());
+        assertEquals(5, hottest.getHitCount());
+        assertEquals(3, hottest.getFirstUse());
+
+        List<MethodMapEntry> entriesOfA = blocks.get(1).getEntries();
+        assertEquals(A.class.getName(), blocks.get(1).getClassName());
+        assertEquals("toString", entriesOfA.get(0).getSelector());
+        assertEquals(1, entriesOfA.get(0).getFirstUse());
+        assertEquals("onlyInA", entriesOfA.get(1).getSelector());
+        assertEquals(2, entriesOfA.get(1).getFirstUse());
+    }
+
+    @Test
+    void saveMethods_withPruning_dropsEntriesNotUsedInRecentRuns(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setPruneAfterUnusedRuns(2);
+        Performer.setMemoizationEnabled(true);
+
+        // run 1: use A and C
+        Performer.setUsageProfilingEnabled(true);
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals("only in A", Performer.perform(new A(), "onlyInA"));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        Performer.saveMethods(methodMapFilePath);
+        assertEquals(Arrays.asList("toString:0", "onlyInA:0", "+:0"), selectorsWithUnusedRuns(methodMapFilePath));
+
+        // runs 2 and 3: only use C
+        for (int run = 2; run <= 3; run++) {
+            Performer.setUsageProfilingEnabled(false);
+            Performer.setUsageProfilingEnabled(true);
+            Performer.loadMethodsLazy(methodMapFilePath);
+            assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+            Performer.saveMethods(methodMapFilePath);
+        }
+        assertEquals(Collections.singletonList("+:0"), selectorsWithUnusedRuns(methodMapFilePath));
+
+        // run 4: C is used, but not often enough
+        Performer.setPruneAfterUnusedRuns(1);
+        Performer.setPruneMinHitCount(3);
+        Performer.setUsageProfilingEnabled(false);
+        Performer.setUsageProfilingEnabled(true);
+        Performer.loadMethods(methodMapFilePath);
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        Performer.saveMethods(methodMapFilePath);
+        assertEquals(Collections.emptyList(), selectorsWithUnusedRuns(methodMapFilePath));
+    }
+
+    /**
+     * Returns "selector:unusedRuns" for all entries in the file, in file
+     * order.
+     */
+    private static List<String> selectorsWithUnusedRuns(String methodMapFilePath) throws IOException {
+        List<MethodMapBlock> blocks;
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(methodMapFilePath + ".methods"))) {
+            blocks = MethodMapFile.read(in);
+        }
+        List<String> result = new ArrayList<>();
+        for (MethodMapBlock block : blocks) {
+            for (MethodMapEntry entry : block.getEntries()) {
+                result.add(entry.getSelector() + ":" + entry.getUnusedRuns());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void loadBaseMethods_saveMethodsSavesOverlayOnly(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String baseFilePath = new File(tempDir, "base").getAbsolutePath();
+        String overlayFilePath = new File(tempDir, "overlay").getAbsolutePath();
+
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            for (boolean lazy : new boolean[]{false, true}) {
+                Performer.setMethodMapFormat(format);
+                Performer.clearBaseMethods();
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(true);
+                assertEquals("an A", Performer.perform(new A(), "toString"));
+                assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new A(), "foo"));
+                Performer.saveMethods(baseFilePath);
+
+                Performer.setMemoizationEnabled(false);
+                Performer.setMemoizationEnabled(true);
+                if (lazy) {
+                    Performer.loadBaseMethodsLazy(baseFilePath);
+                } else {
+                    Performer.loadBaseMethods(baseFilePath);
+                }
+                long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+                assertEquals("an A", Performer.perform(new A(), "toString"));
+                assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new A(), "foo"));
+                assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+                assertEquals("only in C", Performer.perform(new C(), "onlyInC"));
+                assertEquals(originalGetMethodCallCount + 1, Performer.getOriginalGetMethodCallCount());
+                Performer.saveMethods(overlayFilePath);
+
+                // the base method map survives loading a new overlay
+                Performer.loadMethods(overlayFilePath);
+                StringWriter sw = new StringWriter();
+                Performer.dumpMethods(sw);
+                assertEquals("org.abego.lab.perform.sample.C\tonlyInC\n", sw.toString());
+                assertEquals("an A", Performer.perform(new A(), "toString"));
+                assertEquals("only in C", Performer.perform(new C(), "onlyInC"));
+                assertEquals(originalGetMethodCallCount + 1, Performer.getOriginalGetMethodCallCount());
+            }
+        }
+    }
+
+    @Test
+    void loadMethodsAsync_keepsMethodsResolvedWhileLoading(@TempDir File tempDir)
+            throws IOException, InterruptedException, ExecutionException {
+        Performer.setMemoizationEnabled(true);
+        runSmallTestSample();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+
+        Performer.setMemoizationEnabled(false);
+        CompletableFuture<Void> future = Performer.loadMethodsAsync(methodMapFilePath);
+        // not in the loaded method map
+        assertNotNull(Performer.perform(new A(), "hashCode"));
+        future.get();
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+        runSmallTestSample();
+        Performer.perform(new A(), "hashCode");
+
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    @Test
+    void loadMethodsAsync_withMaxWait(@TempDir File tempDir) throws IOException {
+        Performer.setMemoizationEnabled(true);
+        runSmallTestSample();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+        Performer.setMemoizationEnabled(false);
+
+        CompletableFuture<Void> future = Performer.loadMethodsAsync(methodMapFilePath, 60000);
+
+        assertTrue(future.isDone());
+        StringWriter sw = new StringWriter();
+        Performer.dumpMethods(sw);
+        assertIsSmallTestSampleMethodDump(sw.toString());
+        assertThrows(IllegalArgumentException.class,
+                () -> Performer.loadMethodsAsync(methodMapFilePath, -1));
+    }
+
+    @Test
+    void loadMethodsAsync_failures(@TempDir File tempDir) throws IOException, InterruptedException {
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+
+        // missing file: the application continues without the methods
+        CompletableFuture<Void> future = Performer.loadMethodsAsync(methodMapFilePath, 60000);
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof IOException);
+        runSmallTestSample();
+
+        // method map replaced while loading: the loaded methods are dropped
+        Performer.saveMethods(methodMapFilePath);
+        Performer.setMemoizationEnabled(false);
+        future = Performer.loadMethodsAsync(methodMapFilePath);
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            fail(ex);
+        }
+        StringWriter sw = new StringWriter();
+        Performer.dumpMethods(sw);
+        assertEquals("", sw.toString());
+    }
+
+    @Test
+    void loadMethodsHotFirst(@TempDir File tempDir) throws IOException, InterruptedException {
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        Performer.setUsageProfilingEnabled(true);
+        runSmallTestSample();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+        Performer.setUsageProfilingEnabled(false);
+
+        for (int eagerEntryBudget : new int[]{0, 5, Integer.MAX_VALUE}) {
+            Performer.loadMethodsHotFirst(methodMapFilePath, eagerEntryBudget);
+            Performer.awaitReadAhead();
+            long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+            runSmallTestSample();
+            StringWriter sw = new StringWriter();
+            Performer.dumpMethods(sw);
+            assertIsSmallTestSampleMethodDump(sw.toString());
+            assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> Performer.loadMethodsHotFirst(methodMapFilePath, -1));
+    }
+
+    /**
+     * Compare the time until the method map is "usable" for the various
+     * ways to load the big sample method map.
+     */
+    @Test
+    void loadMethodsHotFirst_bigSample(@TempDir File tempDir) throws
+            IOException, ClassNotFoundException, NoSuchMethodException, InterruptedException {
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        Performer.setUsageProfilingEnabled(true);
+        runBigSample();
+        String methodMapFilePath = pathOfMethodMapFileInDir(tempDir);
+        Performer.saveMethods(methodMapFilePath);
+        Performer.setUsageProfilingEnabled(false);
+
+        long startTime = System.nanoTime();
+        Performer.loadMethods(methodMapFilePath);
+        printDuration(startTime, System.nanoTime(), "loadMethods_blocksFormat_bigSample");
+
+        startTime = System.nanoTime();
+        Performer.loadMethodsLazy(methodMapFilePath);
+        printDuration(startTime, System.nanoTime(), "loadMethodsLazy_blocksFormat_bigSample");
+
+        for (int eagerEntryBudget : new int[]{0, 1000}) {
+            String name = "loadMethodsHotFirst_" + eagerEntryBudget + "_bigSample";
+            startTime = System.nanoTime();
+            Performer.loadMethodsHotFirst(methodMapFilePath, eagerEntryBudget);
+            printDuration(startTime, System.nanoTime(), name);
+            Performer.awaitReadAhead();
+            printDuration(startTime, System.nanoTime(), name + "_includingReadAhead");
+
+            assertEquals("C0#m0()", Performer.perform(new C0(), "m0"));
+        }
+    }
+
     private void runBigSample() {
         BigSample.main(new String[0]);
     }
@@ -0,0 +1,64 @@
+package org.abego.lab.perform.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelectorTranslatorTest {
+
+    @Test
+    void translate() {
+        assertTranslation("size", SelectorTranslator.ANY_PARAMETER_COUNT, "size");
+        assertTranslation("plus", SelectorTranslator.ANY_PARAMETER_COUNT, "+");
+        assertTranslation("minus", SelectorTranslator.ANY_PARAMETER_COUNT, "-");
+        assertTranslation("lessLess", SelectorTranslator.ANY_PARAMETER_COUNT, "<<");
+        assertTranslation("lessEqual", SelectorTranslator.ANY_PARAMETER_COUNT, "<=");
+        assertTranslation("minusGreater", SelectorTranslator.ANY_PARAMETER_COUNT, "->");
+        assertTranslation("equalEqualGreater", SelectorTranslator.ANY_PARAMETER_COUNT, "==>");
+        assertTranslation("atSign", SelectorTranslator.ANY_PARAMETER_COUNT, "@");
+        assertTranslation("at", 1, "at:");
+        assertTranslation("atPut", 2, "at:put:");
+        assertTranslation("insertAt", 2, "insert:at:");
+
+        // no valid binary or keyword selectors: used as they are
+        assertTranslation("at:put", SelectorTranslator.ANY_PARAMETER_COUNT, "at:put");
+        assertTranslation("at::", SelectorTranslator.ANY_PARAMETER_COUNT, "at::");
+        assertTranslation(":", SelectorTranslator.ANY_PARAMETER_COUNT, ":");
+        assertTranslation("a+", SelectorTranslator.ANY_PARAMETER_COUNT, "a+");
+    }
+
+    @Test
+    void translate_isMemoized() {
+        assertSame(SelectorTranslator.translate("at:put:"), SelectorTranslator.translate("at:put:"));
+        assertSame(SelectorTranslator.selectors("atPut", 2), SelectorTranslator.selectors("atPut", 2));
+    }
+
+    @Test
+    void selectors() {
+        assertEquals(Collections.singletonList("size"), SelectorTranslator.selectors("size", 0));
+        assertEquals(Arrays.asList("plus", "+"), SelectorTranslator.selectors("plus", 2));
+        assertEquals(Arrays.asList("plus", "+", "plus:"), SelectorTranslator.selectors("plus", 1));
+        assertEquals(Arrays.asList("lessEqual", "<=", "lessEqual:"), SelectorTranslator.selectors("lessEqual", 1));
+        assertEquals(Arrays.asList("atSign", "@"), SelectorTranslator.selectors("atSign", 0));
+        assertEquals(Arrays.asList("at", "at:"), SelectorTranslator.selectors("at", 1));
+        assertEquals(Arrays.asList("atPut", "at:put:"), SelectorTranslator.selectors("atPut", 2));
+        assertEquals(Collections.singletonList("atPut"), SelectorTranslator.selectors("atPut", 3));
+        assertEquals(Arrays.asList("insertAt", "insert:at:"), SelectorTranslator.selectors("insertAt", 2));
+        // "atSignature" starts like "atSign", but is no binary selector
+        assertEquals(Collections.singletonList("atSignature"), SelectorTranslator.selectors("atSignature", 0));
+
+        // the reverse mapping translates back into the method name
+        for (String selector : SelectorTranslator.selectors("insertAt", 2)) {
+            assertEquals("insertAt", SelectorTranslator.methodName(selector));
+        }
+    }
+
+    private static void assertTranslation(String methodName, int parameterCount, String selector) {
+        SelectorTranslator.Translation translation = SelectorTranslator.translate(selector);
+        assertEquals(methodName, translation.getMethodName());
+        assertEquals(parameterCount, translation.getParameterCount());
+    }
+}
@@ -0,0 +1,37 @@
+package org.abego.lab.perform.core;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Run in separate JVMs by {@link SharedMethodMapTest} to check the method
+ * map is shared between processes.
+ * <p>
+ * Arguments: sharedMethodMapFilePath classCount
+ * <p>
+ * Performs all methods of the first classCount big sample classes, using the
+ * shared method map, and prints how often the original getMethod was called.
+ */
+final class SharedMethodMapMain {
+    static final String RESULT_PREFIX = "originalGetMethodCallCount=";
+
+    public static void main(String[] args) throws IOException, ReflectiveOperationException {
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMemoizationEnabled(true);
+        Performer.useSharedMethodMap(args[0]);
+
+        int classCount = Integer.parseInt(args[1]);
+        for (int i = 0; i < classCount; i++) {
+            Class<?> type = Class.forName("org.abego.lab.perform.bigsample.C" + i);
+            Object instance = type.getConstructor().newInstance();
+            try {
+                type.getMethod("performAllMethods").invoke(instance);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        Performer.closeSharedMethodMap();
+
+        System.out.println(RESULT_PREFIX + Performer.getOriginalGetMethodCallCount());
+    }
+}
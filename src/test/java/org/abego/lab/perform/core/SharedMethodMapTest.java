@@ -0,0 +1,174 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.C0;
+import org.abego.lab.perform.sample.A;
+import org.abego.lab.perform.sample.C;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedMethodMapTest {
+    private static final int CLASS_COUNT = 100;
+    private static final int METHODS_PER_CLASS_COUNT = 100;
+    private static final int CONCURRENT_PROCESS_COUNT = 3;
+
+    @BeforeEach
+    void setUp() {
+        Performer.setMemoizationEnabled(false);
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.OBJECT_STREAMS);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Performer.closeSharedMethodMap();
+    }
+
+    @Test
+    void useSharedMethodMap_newMethodMapGetsSharedEntries(@TempDir File tempDir)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        Performer.setMemoizationEnabled(true);
+        Performer.useSharedMethodMap(new File(tempDir, "shared").getAbsolutePath(), 64 * 1024);
+        performSomeSampleMethods();
+
+        // start with a new (empty) method map
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        performSomeSampleMethods();
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+
+        // shared entries not yet resolved can be saved in any format
+        Performer.setMemoizationEnabled(false);
+        Performer.setMemoizationEnabled(true);
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        String methodMapFilePath = new File(tempDir, "methodMap").getAbsolutePath();
+        for (MethodMapFormat format : MethodMapFormat.values()) {
+            Performer.setMethodMapFormat(format);
+            Performer.saveMethods(methodMapFilePath);
+            Performer.loadMethods(methodMapFilePath);
+            Performer.closeSharedMethodMap();
+            performSomeSampleMethods();
+            assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+            Performer.useSharedMethodMap(new File(tempDir, "shared").getAbsolutePath());
+        }
+    }
+
+    @Test
+    void useSharedMethodMap_fullFileStillMemoizes(@TempDir File tempDir) throws IOException {
+        Performer.setMemoizationEnabled(true);
+        // room for the header and a few entries only
+        Performer.useSharedMethodMap(new File(tempDir, "shared").getAbsolutePath(), 256);
+
+        new C0().performAllMethods();
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        new C0().performAllMethods();
+
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    @Test
+    void useSharedMethodMap_sharedEntriesLoadPendingShards(@TempDir File tempDir) throws IOException {
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        Performer.setMemoizationEnabled(true);
+        C0 c0 = new C0();
+        // "m0" is only in the shard, "m1" also in the shared method map
+        Performer.perform(c0, "m0");
+        Performer.useSharedMethodMap(new File(tempDir, "shared").getAbsolutePath(), 64 * 1024);
+        Performer.perform(c0, "m1");
+        String directoryPath = new File(tempDir, "shards").getAbsolutePath();
+        Performer.saveMethodsSharded(directoryPath);
+
+        Performer.loadMethodsSharded(directoryPath);
+        // reads the shared entries, i.e. C0 is first seen in a shared entry
+        Performer.perform(new A(), "toString");
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+
+        assertEquals("C0#m0()", Performer.perform(c0, "m0"));
+        assertEquals("C0#m1()", Performer.perform(c0, "m1"));
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    /**
+     * Several JVMs resolve the same methods concurrently, sharing their
+     * results. A JVM started later finds all methods in the shared map.
+     */
+    @Test
+    void useSharedMethodMap_acrossProcesses(@TempDir File tempDir)
+            throws IOException, InterruptedException {
+        String sharedFilePath = new File(tempDir, "shared").getAbsolutePath();
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_PROCESS_COUNT; i++) {
+            processes.add(startSharedMethodMapMain(sharedFilePath));
+        }
+        long totalCallCount = 0;
+        for (Process process : processes) {
+            long callCount = originalGetMethodCallCount(process);
+            System.out.println("originalGetMethodCallCount_concurrentProcess: " + callCount);
+            totalCallCount += callCount;
+        }
+        // every process saves some work, the total is (usually) far below
+        // CONCURRENT_PROCESS_COUNT * CLASS_COUNT * METHODS_PER_CLASS_COUNT
+        assertTrue(totalCallCount >= CLASS_COUNT * METHODS_PER_CLASS_COUNT);
+
+        long callCount = originalGetMethodCallCount(startSharedMethodMapMain(sharedFilePath));
+        System.out.println("originalGetMethodCallCount_laterProcess: " + callCount);
+        assertEquals(0, callCount);
+
+        // also this process benefits from the shared method map
+        Performer.setMemoizationEnabled(true);
+        Performer.useSharedMethodMap(sharedFilePath);
+        long originalGetMethodCallCount = Performer.getOriginalGetMethodCallCount();
+        new C0().performAllMethods();
+        assertEquals(originalGetMethodCallCount, Performer.getOriginalGetMethodCallCount());
+    }
+
+    private static void performSomeSampleMethods() {
+        assertEquals("an A", Performer.perform(new A(), "toString"));
+        assertEquals("only in C", Performer.perform(new C(), "onlyInC"));
+        assertEquals(3, Performer.perform(new C(), "+", 1, 2));
+        assertThrows(UnsupportedOperationException.class, () -> Performer.perform(new A(), "foo"));
+    }
+
+    private static Process startSharedMethodMapMain(String sharedFilePath) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                CdsArchiveBuilder.javaExecutable(),
+                "-cp", System.getProperty("java.class.path"),
+                SharedMethodMapMain.class.getName(),
+                sharedFilePath,
+                Integer.toString(CLASS_COUNT)));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    private static long originalGetMethodCallCount(Process process)
+            throws IOException, InterruptedException {
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+                if (line.startsWith(SharedMethodMapMain.RESULT_PREFIX)) {
+                    result = line.substring(SharedMethodMapMain.RESULT_PREFIX.length());
+                }
+            }
+        }
+        assertEquals(0, process.waitFor(), output::toString);
+        assertNotNull(result, output::toString);
+        return Long.parseLong(result);
+    }
+}
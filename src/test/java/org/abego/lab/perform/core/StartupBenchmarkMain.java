@@ -0,0 +1,48 @@
+package org.abego.lab.perform.core;
+
+import org.abego.lab.perform.bigsample.BigSample;
+import org.abego.lab.perform.bigsample.C0;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Run in a separate JVM by {@link ClassListExporterTest} and
+ * {@link ClassPreloadingTest} to measure the time from the JVM start to the
+ * first perform, after loading a method map.
+ * <p>
+ * Arguments: methodMapFilePath (blocks format, without the ".methods"
+ * suffix) [classPreloadThreadCount [classPreloadInitialization]].
+ * <p>
+ * When the classPreloadThreadCount is given also measures the time to load
+ * the method map and run the big sample.
+ */
+final class StartupBenchmarkMain {
+    static final String RESULT_PREFIX = "timeToFirstPerformMillis=";
+    static final String RUN_RESULT_PREFIX = "afterLoadMethodsMillis=";
+
+    public static void main(String[] args)
+            throws IOException, ClassNotFoundException, NoSuchMethodException {
+        long startTime = System.nanoTime();
+        Performer.setExtraDelayInOriginalGetMethodInMicros(0);
+        Performer.setMethodMapFormat(MethodMapFormat.BLOCKS);
+        if (args.length > 1) {
+            Performer.setClassPreloadThreadCount(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            Performer.setClassPreloadInitialization(Boolean.parseBoolean(args[2]));
+        }
+        Performer.setMemoizationEnabled(true);
+        Performer.loadMethods(args[0]);
+        Performer.perform(new C0(), "m0");
+        long endTime = System.currentTimeMillis();
+
+        System.out.println(RESULT_PREFIX +
+                (endTime - ManagementFactory.getRuntimeMXBean().getStartTime()));
+
+        if (args.length > 1) {
+            BigSample.main(new String[0]);
+            System.out.println(RUN_RESULT_PREFIX + (System.nanoTime() - startTime) / 1000000);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.abego.lab.perform.sample;
+
+import org.abego.lab.perform.core.ForwardingProxy;
+
+/**
+ * A proxy forwarding the messages it does not understand to its target.
+ */
+public class Decorator implements ForwardingProxy {
+    private final Object target;
+
+    public Decorator(Object target) {
+        this.target = target;
+    }
+
+    @Override
+    public Object getForwardingTarget() {
+        return target;
+    }
+
+    public String describe() {
+        return "decorated " + target;
+    }
+}
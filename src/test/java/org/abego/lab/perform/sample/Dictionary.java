@@ -0,0 +1,57 @@
+package org.abego.lab.perform.sample;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class implementing binary and keyword selectors (see
+ * {@code SelectorTranslator}).
+ */
+public class Dictionary {
+    private final Map<Object, Object> map = new LinkedHashMap<>();
+    private final List<Object> log = new ArrayList<>();
+
+    // "at:put:"
+    public Object atPut(Object key, Object value) {
+        map.put(key, value);
+        return value;
+    }
+
+    // "at:"
+    public Object at(Object key) {
+        return map.get(key);
+    }
+
+    // "insert:at:"
+    public List<Object> insertAt(Object item, int index) {
+        log.add(index, item);
+        return log;
+    }
+
+    // "<<"
+    public List<Object> lessLess(Object item) {
+        log.add(item);
+        return log;
+    }
+
+    // "<="
+    public boolean lessEqual(Dictionary other) {
+        return map.size() <= other.map.size();
+    }
+
+    // "->"
+    public String minusGreater(Object value) {
+        return "Dictionary->" + value;
+    }
+
+    // "==>"
+    public String equalEqualGreater(Object value) {
+        return "Dictionary==>" + value;
+    }
+
+    public int size() {
+        return map.size();
+    }
+}
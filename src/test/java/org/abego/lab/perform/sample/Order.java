@@ -0,0 +1,46 @@
+package org.abego.lab.perform.sample;
+
+/**
+ * A class with a chain of unary selectors ({@code order customer address city}).
+ */
+public class Order {
+    public static class Address {
+        private final String city;
+
+        public Address(String city) {
+            this.city = city;
+        }
+
+        public String city() {
+            return city;
+        }
+    }
+
+    public static class Customer {
+        private final Address address;
+
+        public Customer(Address address) {
+            this.address = address;
+        }
+
+        public Address address() {
+            return address;
+        }
+    }
+
+    private final Customer customer;
+    private final int quantity;
+
+    public Order(String city, int quantity) {
+        this.customer = new Customer(new Address(city));
+        this.quantity = quantity;
+    }
+
+    public Customer customer() {
+        return customer;
+    }
+
+    public int quantity() {
+        return quantity;
+    }
+}
@@ -0,0 +1,39 @@
+package org.abego.lab.perform.sample;
+
+/**
+ * A class with overloaded methods, selected by the runtime classes of the
+ * arguments.
+ */
+public class Printer {
+
+    // "print:"
+    public String print(Object value) {
+        return "Object";
+    }
+
+    public String print(CharSequence value) {
+        return "CharSequence";
+    }
+
+    public String print(String value) {
+        return "String";
+    }
+
+    // "pad:" (no overload for Objects, so arguments are unboxed)
+    public String pad(long value) {
+        return "long";
+    }
+
+    public String pad(double value) {
+        return "double";
+    }
+
+    // "print:with:" (ambiguous for two Integers)
+    public String printWith(Object value, Integer other) {
+        return "Object,Integer";
+    }
+
+    public String printWith(Integer value, Object other) {
+        return "Integer,Object";
+    }
+}
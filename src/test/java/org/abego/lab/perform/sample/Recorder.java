@@ -0,0 +1,22 @@
+package org.abego.lab.perform.sample;
+
+import org.abego.lab.perform.core.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class handling the messages it does not understand by recording them.
+ */
+public class Recorder {
+    private final List<String> messages = new ArrayList<>();
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public String doesNotUnderstand(Message message) {
+        messages.add(message.toString());
+        return "recorded " + message.getSelector();
+    }
+}
@@ -0,0 +1,22 @@
+package org.abego.lab.perform.sample;
+
+/**
+ * A class with class-side (static) methods.
+ */
+public class Shape {
+
+    // "unit" (class side)
+    public static String unit() {
+        return "Shape unit";
+    }
+
+    // "named:" (class side)
+    public static String named(String name) {
+        return "Shape named " + name;
+    }
+
+    // "describe" (instance side)
+    public String describe() {
+        return "a Shape";
+    }
+}
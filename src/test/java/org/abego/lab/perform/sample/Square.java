@@ -0,0 +1,13 @@
+package org.abego.lab.perform.sample;
+
+/**
+ * A subclass of {@link Shape}, hiding one of its class-side methods and
+ * inheriting the other.
+ */
+public class Square extends Shape {
+
+    // "unit" (class side)
+    public static String unit() {
+        return "Square unit";
+    }
+}
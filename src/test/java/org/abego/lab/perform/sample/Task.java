@@ -0,0 +1,22 @@
+package org.abego.lab.perform.sample;
+
+/**
+ * A {@code Runnable} declaring its own {@code value} method.
+ */
+public class Task implements Runnable {
+    private int runCount;
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    @Override
+    public void run() {
+        runCount++;
+    }
+
+    // "value"
+    public String value() {
+        return "value of Task";
+    }
+}